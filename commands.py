@@ -1,10 +1,18 @@
 # Here you can create play commands that are specific to the module, and extend existing commands
 
+import os
+import sys
+import subprocess
+
 MODULE = 'elasticsearch'
 
 # Commands that are specific to your module
 
-COMMANDS = ['elasticsearch:hello']
+COMMANDS = ['elasticsearch:hello', 'elasticsearch:reindex']
+
+HELP = {
+    'elasticsearch:reindex': 'Rebuild the Elastic Search index of the given models, or of all searchable models'
+}
 
 def execute(**kargs):
     command = kargs.get("command")
@@ -15,6 +23,15 @@ def execute(**kargs):
     if command == "elasticsearch:hello":
         print "~ Hello"
 
+    if command == "elasticsearch:reindex":
+        app.check()
+        java_cmd = app.java_cmd([], None, "play.modules.elasticsearch.reindex.ReindexCommand", args)
+        try:
+            subprocess.call(java_cmd, env=os.environ)
+        except OSError:
+            print "Could not execute the java executable, please make sure the JAVA_HOME environment variable is set properly (the java executable should reside at JAVA_HOME/bin/java). "
+            sys.exit(-1)
+
 
 # This will be executed before any command (new, run...)
 def before(**kargs):
@@ -0,0 +1,202 @@
+package play.modules.elasticsearch;
+
+import org.elasticsearch.client.Client;
+
+import play.Logger;
+import play.modules.elasticsearch.util.NamedThreadFactory;
+
+/**
+ * Creates the client and waits for the cluster in a background thread.
+ *
+ * <p>
+ * The cluster health is checked with exponential backoff, from 100 ms up to
+ * the maximum backoff, until the cluster is ready or the timeout has passed.
+ * Once the cluster is ready, {@link #getClient()} returns the client without
+ * locking. Before that, callers wait for the outcome; if the cluster did not
+ * become ready in time, they fail and the next call starts over, reusing the
+ * client created before.
+ */
+public abstract class ClientBootstrap {
+
+	/** The state of the bootstrap */
+	public static enum State {
+
+		/** Not started yet */
+		STOPPED,
+
+		/** Creating the client or waiting for the cluster */
+		STARTING,
+
+		/** The cluster is ready */
+		READY,
+
+		/** The client could not be created or the cluster was not ready in time */
+		FAILED;
+
+	}
+
+	/** Delay before the second health check */
+	private static final long INITIAL_BACKOFF = 100;
+
+	/** Creates the bootstrap threads */
+	private static final NamedThreadFactory threadFactory = new NamedThreadFactory("elasticsearch-client");
+
+	/** Maximum time to wait for the cluster in milliseconds */
+	private final long timeout;
+
+	/** Maximum delay between two health checks in milliseconds */
+	private final long maxBackoff;
+
+	/** The client, set once the cluster is ready */
+	private volatile Client readyClient = null;
+
+	/** The client, set once created, guarded by this */
+	private Client client = null;
+
+	/** The state, guarded by this */
+	private State state = State.STOPPED;
+
+	/** Why the last bootstrap failed, guarded by this */
+	private Throwable failure = null;
+
+	/**
+	 * Creates a bootstrap
+	 *
+	 * @param timeout
+	 *            maximum time to wait for the cluster in milliseconds
+	 * @param maxBackoff
+	 *            maximum delay between two health checks in milliseconds
+	 */
+	public ClientBootstrap(long timeout, long maxBackoff) {
+		this.timeout = timeout;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Creates the client
+	 *
+	 * @return the client
+	 */
+	protected abstract Client createClient();
+
+	/**
+	 * Checks the cluster health once
+	 *
+	 * @param client
+	 *            the client
+	 * @return true if the cluster is ready
+	 * @throws Exception
+	 *             if the cluster cannot be reached
+	 */
+	protected abstract boolean isClusterReady(Client client) throws Exception;
+
+	/**
+	 * Starts the bootstrap in the background, unless it is running or done
+	 */
+	public synchronized void start() {
+		if (state == State.STARTING || state == State.READY) {
+			return;
+		}
+		state = State.STARTING;
+		failure = null;
+		threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				bootstrap();
+			}
+		}).start();
+	}
+
+	private void bootstrap() {
+		long start = System.currentTimeMillis();
+		try {
+			Client c;
+			synchronized (this) {
+				c = client;
+			}
+			if (c == null) {
+				c = createClient();
+				synchronized (this) {
+					client = c;
+				}
+			}
+
+			long backoff = INITIAL_BACKOFF;
+			while (!checkCluster(c)) {
+				long remaining = start + timeout - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new IllegalStateException("Elastic Search cluster not ready after " + timeout + " ms");
+				}
+				Thread.sleep(Math.min(backoff, remaining));
+				backoff = Math.min(backoff * 2, maxBackoff);
+			}
+
+			Logger.info("Elastic Search cluster ready after %s ms", System.currentTimeMillis() - start);
+			synchronized (this) {
+				readyClient = c;
+				state = State.READY;
+				notifyAll();
+			}
+
+		} catch (Throwable t) {
+			Logger.error("Elastic Search is not available: %s", t.getMessage());
+			synchronized (this) {
+				state = State.FAILED;
+				failure = t;
+				notifyAll();
+			}
+		}
+	}
+
+	private boolean checkCluster(Client c) {
+		try {
+			return isClusterReady(c);
+		} catch (Exception e) {
+			Logger.debug("Elastic Search cluster not reachable: %s", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the client, waiting for the cluster if it is not ready yet
+	 *
+	 * @return the client
+	 * @throws IllegalStateException
+	 *             if the cluster did not become ready in time
+	 */
+	public Client getClient() {
+		Client c = readyClient;
+		if (c != null) {
+			return c;
+		}
+		return awaitClient();
+	}
+
+	private synchronized Client awaitClient() {
+		if (state == State.STOPPED || state == State.FAILED) {
+			start();
+		}
+		while (state == State.STARTING) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for Elastic Search", e);
+			}
+		}
+		if (state == State.READY) {
+			return readyClient;
+		}
+		throw new IllegalStateException("Elastic Search is not available", failure);
+	}
+
+	/**
+	 * Gets the state
+	 *
+	 * @return the state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+}
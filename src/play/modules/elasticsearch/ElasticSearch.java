@@ -26,6 +26,7 @@ import org.elasticsearch.search.facet.AbstractFacetBuilder;
 
 import play.Play;
 import play.db.Model;
+import play.libs.F;
 import play.modules.elasticsearch.mapping.ModelMapper;
 import play.modules.elasticsearch.search.SearchResults;
 
@@ -93,7 +94,7 @@ public abstract class ElasticSearch {
 	 * @return the search results
 	 */
 	public static <T extends Model> SearchResults<T> search(QueryBuilder query, Class<T> clazz, AbstractFacetBuilder... facets) {
-		return search(query, clazz, false, facets);
+		return query(query, clazz, false, facets).fetch();
 	}
 	
 	/**
@@ -111,11 +112,47 @@ public abstract class ElasticSearch {
 	 * @return the search results
 	 */
 	public static <T extends Model> SearchResults<T> searchAndHydrate(QueryBuilder queryBuilder, Class<T> clazz, AbstractFacetBuilder... facets) {
-		return search(queryBuilder, clazz, true, facets);
+		return query(queryBuilder, clazz, true, facets).fetch();
 	}
 	
 	/**
-	 * Faceted search, hydrates entities if asked to do so.
+	 * Search with optional facets, without blocking the calling thread.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param queryBuilder
+	 *            the query builder
+	 * @param clazz
+	 *            the clazz
+	 * @param facets
+	 *            the facets
+	 * 
+	 * @return the promise of the search results
+	 */
+	public static <T extends Model> F.Promise<SearchResults<T>> searchAsync(QueryBuilder query, Class<T> clazz, AbstractFacetBuilder... facets) {
+		return query(query, clazz, false, facets).fetchAsync();
+	}
+	
+	/**
+	 * Search with optional facets, without blocking the calling thread. Hydrates entities
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param queryBuilder
+	 *            the query builder
+	 * @param clazz
+	 *            the clazz
+	 * @param facets
+	 *            the facets
+	 * 
+	 * @return the promise of the search results
+	 */
+	public static <T extends Model> F.Promise<SearchResults<T>> searchAndHydrateAsync(QueryBuilder queryBuilder, Class<T> clazz, AbstractFacetBuilder... facets) {
+		return query(queryBuilder, clazz, true, facets).fetchAsync();
+	}
+	
+	/**
+	 * Builds a faceted query, hydrates entities if asked to do so.
 	 * 
 	 * @param <T>
 	 *            the generic type
@@ -128,9 +165,9 @@ public abstract class ElasticSearch {
 	 * @param facets
 	 *            the facets
 	 * 
-	 * @return the search results
+	 * @return the query
 	 */
-	private static <T extends Model> SearchResults<T> search(QueryBuilder query, Class<T> clazz, boolean hydrate, AbstractFacetBuilder... facets) {
+	private static <T extends Model> Query<T> query(QueryBuilder query, Class<T> clazz, boolean hydrate, AbstractFacetBuilder... facets) {
 		// Build a query for this search request
 		Query<T> search = query(query, clazz);
 		
@@ -142,7 +179,7 @@ public abstract class ElasticSearch {
 			search.addFacet(facet);
 		}
 		
-		return search.fetch();
+		return search;
 	}
 	
 	/**
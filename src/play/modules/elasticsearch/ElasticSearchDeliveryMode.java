@@ -19,6 +19,7 @@
 package play.modules.elasticsearch;
 
 import play.Play;
+import play.modules.elasticsearch.journal.JournalIndexEventHandler;
 import play.modules.elasticsearch.rabbitmq.RabbitMQIndexEventHandler;
 
 /**
@@ -37,6 +38,9 @@ public class ElasticSearchDeliveryMode {
 	/** The RABBITMQ. */
     public final static ElasticSearchDeliveryMode RABBITMQ = new ElasticSearchDeliveryMode(new RabbitMQIndexEventHandler());
 
+	/** The JOURNAL. */
+	public final static ElasticSearchDeliveryMode JOURNAL = new ElasticSearchDeliveryMode(new JournalIndexEventHandler());
+
 	private final IndexEventHandler handler;
 
 	ElasticSearchDeliveryMode(IndexEventHandler handler) {
@@ -69,6 +73,8 @@ public class ElasticSearchDeliveryMode {
             return LOCAL;
         if("RABBITMQ".equals(s))
             return RABBITMQ;
+        if("JOURNAL".equals(s))
+            return JOURNAL;
         throw new IllegalArgumentException("Unspecified Mode given: " + s);
     }
 
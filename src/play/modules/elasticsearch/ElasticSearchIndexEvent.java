@@ -18,19 +18,46 @@
  */
 package play.modules.elasticsearch;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import play.db.Model;
+import play.modules.elasticsearch.adapter.DocumentSerializer;
+import play.modules.elasticsearch.mapping.ModelMapper;
 
 /**
  * The Class ElasticSearchIndexEvent.
+ * 
+ * <p>
+ * An event either refers to a model object, or is detached: it then only holds
+ * the index name, type name, document id and, for {@link Type#INDEX} events,
+ * the rendered document. Detached events do not keep the model alive and can
+ * be written to a stream.
  */
 public class ElasticSearchIndexEvent {
 
-	/** The object. */
+	/** The object, null if detached. */
 	private Model object;
 
 	/** The type. */
 	private Type type;
 
+	/** The index name, only set if detached. */
+	private String indexName;
+
+	/** The type name, only set if detached. */
+	private String typeName;
+
+	/** The document id, only set if detached. */
+	private String documentId;
+
+	/** The rendered document, only set if detached. */
+	private byte[] source;
+
+	/** Cached document key. */
+	private String documentKey;
+
 	/**
 	 * Instantiates a new elastic search index event.
 	 * 
@@ -45,6 +72,29 @@ public class ElasticSearchIndexEvent {
 		this.type = type;
 	}
 
+	/**
+	 * Instantiates a new detached elastic search index event.
+	 * 
+	 * @param indexName
+	 *            the index name
+	 * @param typeName
+	 *            the type name
+	 * @param documentId
+	 *            the document id
+	 * @param type
+	 *            the type
+	 * @param source
+	 *            the rendered document, null for {@link Type#DELETE} events
+	 */
+	public ElasticSearchIndexEvent(String indexName, String typeName, String documentId, Type type, byte[] source) {
+		super();
+		this.indexName = indexName;
+		this.typeName = typeName;
+		this.documentId = documentId;
+		this.type = type;
+		this.source = source;
+	}
+
 	/**
 	 * The Enum Type.
 	 */
@@ -61,7 +111,7 @@ public class ElasticSearchIndexEvent {
 	/**
 	 * Gets the object.
 	 * 
-	 * @return the object
+	 * @return the object, null if this event is detached
 	 */
 	public Model getObject() {
 		return this.object;
@@ -76,6 +126,166 @@ public class ElasticSearchIndexEvent {
 		return this.type;
 	}
 
+	/**
+	 * Checks if this event is detached from its model object
+	 * 
+	 * @return true if detached
+	 */
+	public boolean isDetached() {
+		return this.object == null;
+	}
+
+	/**
+	 * Gets the index name, only available if detached
+	 * 
+	 * @return the index name
+	 */
+	public String getIndexName() {
+		return this.indexName;
+	}
+
+	/**
+	 * Gets the type name, only available if detached
+	 * 
+	 * @return the type name
+	 */
+	public String getTypeName() {
+		return this.typeName;
+	}
+
+	/**
+	 * Gets the document id, only available if detached
+	 * 
+	 * @return the document id
+	 */
+	public String getDocumentId() {
+		return this.documentId;
+	}
+
+	/**
+	 * Gets the rendered document, only available if detached
+	 * 
+	 * @return the rendered document, null for {@link Type#DELETE} events
+	 */
+	public byte[] getSource() {
+		return this.source;
+	}
+
+	/**
+	 * Checks if this event only refers to its document, which has to be
+	 * loaded from the database before it can be indexed
+	 * 
+	 * @return true if this is a detached index event without document
+	 */
+	public boolean isReference() {
+		return isDetached() && this.type == Type.INDEX && this.source == null;
+	}
+
+	/**
+	 * Gets the key of the document this event applies to, composed of the
+	 * type name and the document id
+	 * 
+	 * @return the document key
+	 */
+	public String getDocumentKey() {
+		if (this.documentKey == null) {
+			if (isDetached()) {
+				this.documentKey = this.typeName + "#" + this.documentId;
+			} else {
+				ModelMapper<Model> mapper = getMapper();
+				this.documentKey = mapper.getTypeName() + "#" + mapper.getDocumentId(this.object);
+			}
+		}
+		return this.documentKey;
+	}
+
+	/**
+	 * Creates a detached copy of this event, rendering the document if needed
+	 * 
+	 * @return the detached event
+	 * @throws IOException
+	 */
+	public ElasticSearchIndexEvent detach() throws IOException {
+		if (isDetached()) {
+			return this;
+		}
+
+		ModelMapper<Model> mapper = getMapper();
+		byte[] document = null;
+		if (this.type == Type.INDEX) {
+			document = DocumentSerializer.serialize(mapper, this.object).toBytes();
+		}
+
+		return new ElasticSearchIndexEvent(mapper.getIndexName(), mapper.getTypeName(),
+				mapper.getDocumentId(this.object), this.type, document);
+	}
+
+	/**
+	 * Creates a detached copy of this event without rendering the document.
+	 * The document is loaded by its id when the event is processed, see
+	 * {@link #isReference()}.
+	 * 
+	 * @return the detached event
+	 */
+	public ElasticSearchIndexEvent detachReference() {
+		if (isDetached()) {
+			return this.type == Type.INDEX ? new ElasticSearchIndexEvent(this.indexName, this.typeName,
+					this.documentId, this.type, null) : this;
+		}
+
+		ModelMapper<Model> mapper = getMapper();
+		return new ElasticSearchIndexEvent(mapper.getIndexName(), mapper.getTypeName(),
+				mapper.getDocumentId(this.object), this.type, null);
+	}
+
+	/**
+	 * Writes this event to a stream, detaching it if needed
+	 * 
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		ElasticSearchIndexEvent detached = detach();
+		out.writeByte(detached.type.ordinal());
+		out.writeUTF(detached.indexName);
+		out.writeUTF(detached.typeName);
+		out.writeUTF(detached.documentId);
+		if (detached.source != null) {
+			out.writeInt(detached.source.length);
+			out.write(detached.source);
+		} else {
+			out.writeInt(-1);
+		}
+	}
+
+	/**
+	 * Reads a detached event from a stream
+	 * 
+	 * @param in
+	 *            the input
+	 * @return the detached event
+	 * @throws IOException
+	 */
+	public static ElasticSearchIndexEvent readFrom(DataInput in) throws IOException {
+		Type type = Type.values()[in.readByte()];
+		String indexName = in.readUTF();
+		String typeName = in.readUTF();
+		String documentId = in.readUTF();
+		byte[] source = null;
+		int length = in.readInt();
+		if (length >= 0) {
+			source = new byte[length];
+			in.readFully(source);
+		}
+		return new ElasticSearchIndexEvent(indexName, typeName, documentId, type, source);
+	}
+
+	@SuppressWarnings("unchecked")
+	private ModelMapper<Model> getMapper() {
+		return (ModelMapper<Model>) ElasticSearchPlugin.getMapper(this.object.getClass());
+	}
+
 	/**
 	 * To String
 	 * 
@@ -83,6 +293,10 @@ public class ElasticSearchIndexEvent {
 	 */
 	@Override
 	public String toString() {
+		if (isDetached()) {
+			return "ElasticSearchIndexEvent [document=" + this.indexName + "/" + this.typeName + "/"
+					+ this.documentId + ", type=" + this.type + "]";
+		}
 		return "ElasticSearchIndexEvent [object=" + this.object + ", type=" + this.type + "]";
 	}
 
@@ -18,24 +18,73 @@
  */
 package play.modules.elasticsearch;
 
+import java.util.concurrent.TimeUnit;
+
 import play.Logger;
 import play.db.jpa.NoTransaction;
 import play.jobs.Job;
-import play.libs.F.Promise;
+import play.modules.elasticsearch.bulk.BulkIndexer;
+import play.modules.elasticsearch.bulk.CoalescingBuffer;
+import play.modules.elasticsearch.queue.IndexEventQueue;
 import play.modules.elasticsearch.util.ExceptionUtil;
 
 /**
  * Indexer job.
  * 
- * <p>The indexing process runs in a separate thread
+ * <p>Each indexer processes one partition of the index events in a separate thread, see {@link IndexWorkerPool}.
+ * Events are collected in a {@link CoalescingBuffer}, which keeps only the latest event per document, and sent
+ * to Elastic Search in bulk requests by a {@link BulkIndexer}, without waiting for the response of one bulk request
+ * before collecting the next
  * <p>The {@link NoTransaction} annotation prevents the JPAPlugin from creating a hibernate session, 
  * which would remain open for as long as this job is active
  */
 @NoTransaction
 public class ElasticSearchIndexer extends Job<Void> {
 
-	/** Index Stream */
-	public static play.libs.F.EventStream<ElasticSearchIndexEvent> stream = new play.libs.F.EventStream<ElasticSearchIndexEvent>();
+	/** Index Queue */
+	private final IndexEventQueue queue;
+
+	/** Signals the indexer to stop once its queue is drained */
+	private volatile boolean stopped = false;
+
+	/** Signals the indexer to send its pending events now */
+	private volatile boolean flushRequested = false;
+
+	/**
+	 * Instantiates a new indexer.
+	 * 
+	 * @param queue
+	 *            the queue to process
+	 */
+	public ElasticSearchIndexer(IndexEventQueue queue) {
+		this.queue = queue;
+	}
+
+	/**
+	 * Gets the queue of this indexer
+	 * 
+	 * @return the queue
+	 */
+	public IndexEventQueue getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Stops this indexer after the queued events have been processed
+	 */
+	public void stop() {
+		stopped = true;
+		queue.wakeUp();
+	}
+
+	/**
+	 * Makes this indexer send its pending events without waiting for the
+	 * flush interval
+	 */
+	public void flush() {
+		flushRequested = true;
+		queue.wakeUp();
+	}
 
 	/**
 	 * 
@@ -43,20 +92,28 @@ public class ElasticSearchIndexer extends Job<Void> {
 	 */
 	@Override
 	public void doJob() {
-		// In case Play starts this job, we don't need to start it again
-		LocalIndexEventHandler.markIndexerStarted();
-
-		while (true) {
+		CoalescingBuffer buffer = new CoalescingBuffer();
+		BulkIndexer bulkIndexer = new BulkIndexer();
+		while (!stopped || !queue.isEmpty()) {
 			try {
-				Promise<ElasticSearchIndexEvent> promise = ElasticSearchIndexer.stream.nextEvent();
-				ElasticSearchIndexEvent indexEvent = promise.get();
-				ElasticSearchIndexAction indexAction = new ElasticSearchIndexAction();
-				indexAction.invoke(indexEvent);
+				// Wait for the next event, but no longer than the pending events may wait
+				ElasticSearchIndexEvent indexEvent = queue.poll(buffer.getFlushDelay(), TimeUnit.MILLISECONDS);
+				if (indexEvent != null) {
+					buffer.add(indexEvent);
+				}
+				if (buffer.isFlushDue() || flushRequested) {
+					flushRequested = false;
+					// Collect the next events while this bulk request is in flight
+					buffer.drainTo(bulkIndexer);
+					bulkIndexer.flushAsync();
+				}
 
 			} catch (Throwable t) {
 				Logger.error(ExceptionUtil.getStackTrace(t));
 			}
 		}
+		buffer.drainTo(bulkIndexer);
+		bulkIndexer.flush();
 	}
 
 }
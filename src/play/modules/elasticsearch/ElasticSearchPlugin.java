@@ -20,21 +20,25 @@ package play.modules.elasticsearch;
 
 import static org.elasticsearch.node.NodeBuilder.*;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.Validate;
-import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.client.transport.NoNodeAvailableException;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.ImmutableSettings.Builder;
@@ -48,12 +52,21 @@ import play.PlayPlugin;
 import play.db.Model;
 import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
 import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.bulk.BulkIndexer;
+import play.modules.elasticsearch.bulk.CoalescingBuffer;
 import play.modules.elasticsearch.mapping.MapperFactory;
 import play.modules.elasticsearch.mapping.MappingUtil;
 import play.modules.elasticsearch.mapping.ModelMapper;
 import play.modules.elasticsearch.mapping.impl.DefaultMapperFactory;
+import play.modules.elasticsearch.queue.IndexEventQueue;
+import play.modules.elasticsearch.reindex.IndexRebuild;
+import play.modules.elasticsearch.reindex.Reindexer;
+import play.modules.elasticsearch.transformer.ModelHydrator;
 import play.modules.elasticsearch.util.ExceptionUtil;
+import play.modules.elasticsearch.util.NamedThreadFactory;
 import play.modules.elasticsearch.util.ReflectionUtil;
+import play.modules.elasticsearch.util.SingleFlightCache;
 import play.mvc.Router;
 
 // TODO: Auto-generated Javadoc
@@ -62,69 +75,100 @@ import play.mvc.Router;
  */
 public class ElasticSearchPlugin extends PlayPlugin {
 
-	/** The started. */
-	private static boolean started = false;
-
 	/** Signals whether to save events instead of processing them asynchronously. */
 	private static boolean blockEvents = false;
 
 	/** The mapper factory */
 	private static MapperFactory mapperFactory = null;
 
-	/** The mappers index. */
-	private static Map<Class<?>, ModelMapper<?>> mappers = null;
+	/** The mappers index, each mapper is created once. */
+	private static final SingleFlightCache<Class<?>, ModelMapper<?>> mappers = new SingleFlightCache<Class<?>, ModelMapper<?>>() {
+		@Override
+		protected ModelMapper<?> create(final Class<?> clazz) {
+			final ModelMapper<?> mapper = mapperFactory.getMapper(clazz);
+			modelLookup.put(mapper.getTypeName(), clazz);
+			return mapper;
+		}
+	};
 
-	/** The started indices. */
-	private static Set<Class<?>> indicesStarted = null;
+	/** The started indices, each index is started once. */
+	private static final SingleFlightCache<Class<?>, Boolean> indicesStarted = new SingleFlightCache<Class<?>, Boolean>() {
+		@Override
+		protected Boolean create(final Class<?> clazz) {
+			Logger.info("Start Index for Class: %s", clazz);
+			ElasticSearchAdapter.startIndex(client(), getMapper(clazz));
+			return Boolean.TRUE;
+		}
+	};
 
 	/** Index type -> Class lookup */
-	private static Map<String, Class<?>> modelLookup = null;
+	private static final Map<String, Class<?>> modelLookup = new ConcurrentHashMap<String, Class<?>>();
+
+	/** Creates the client and waits for the cluster */
+	private static final ClientBootstrap clientBootstrap = new ClientBootstrap(getClientTimeout(),
+			getClientMaxBackoff()) {
+		@Override
+		protected Client createClient() {
+			return ElasticSearchPlugin.createClient();
+		}
 
-	/** The client. */
-	private static Client client = null;
+		@Override
+		protected boolean isClusterReady(final Client client) {
+			final ClusterHealthRequest clusterHealthRequest = client.admin().cluster().prepareHealth().request();
+			final ClusterHealthResponse clusterHealthResponse = client.admin().cluster()
+					.health(clusterHealthRequest).actionGet();
+			Logger.debug("checked ES cluster health: %s", clusterHealthResponse.status());
+			return clusterHealthResponse.status() != ClusterHealthStatus.RED;
+		}
+	};
+
+	/** The handler of the delivery mode, created on the first event */
+	private static volatile IndexEventHandler indexEventHandler = null;
+
+	/** Guards creating and stopping the handler */
+	private static final Object indexEventHandlerLock = new Object();
 
 	private static final Queue<Model> blockedIndexOperations = new ConcurrentLinkedQueue<Model>();
 
 	private static final Queue<Model> blockedDeleteOperations = new ConcurrentLinkedQueue<Model>();
 
 	/**
-	 * Client.
+	 * Client. Waits until the cluster is ready on the first calls, see
+	 * {@link ClientBootstrap}.
 	 * 
 	 * @return the client
+	 * @throws IllegalStateException
+	 *             if the cluster did not become ready in time
 	 */
-	public synchronized static Client client() {
-		if (client == null) {
-			initClient();
-			waitForClusterToBeReady();
-		}
-		return client;
+	public static Client client() {
+		return clientBootstrap.getClient();
 	}
 
-	private static void waitForClusterToBeReady() {
-		while (clusterNotReady()) {
-			waitAMoment();
-		}
+	/**
+	 * Gets the state of the client
+	 * 
+	 * @return the client state
+	 */
+	public static ClientBootstrap.State getClientState() {
+		return clientBootstrap.getState();
 	}
 
-	private static void waitAMoment() {
-		try {
-			Thread.sleep(100);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Gets the maximum time to wait for the cluster to become ready.
+	 * 
+	 * @return the timeout in milliseconds
+	 */
+	private static long getClientTimeout() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.client.readyTimeout", "60000"));
 	}
 
-	private static boolean clusterNotReady() {
-		try {
-			ClusterHealthRequest clusterHealthRequest = client.admin().cluster().prepareHealth().request();
-			ClusterHealthResponse clusterHealthResponse = client.admin().cluster().health(clusterHealthRequest)
-					.actionGet();
-			Logger.info("checked ES cluster health: %s", ReflectionToStringBuilder.toString(clusterHealthResponse));
-			return clusterHealthResponse.status() == ClusterHealthStatus.RED;
-		} catch (NoNodeAvailableException e) {
-			Logger.error(e, "no node available when checking ES cluster health");
-			return true;
-		}
+	/**
+	 * Gets the maximum delay between two cluster health checks.
+	 * 
+	 * @return the maximum backoff in milliseconds
+	 */
+	private static long getClientMaxBackoff() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.client.maxBackoff", "5000"));
 	}
 
 	public static void setMapperFactory(final MapperFactory factory) {
@@ -198,26 +242,182 @@ public class ElasticSearchPlugin extends PlayPlugin {
 	@Override
 	public void onApplicationStart() {
 		// (re-)set caches
-		mappers = new HashMap<Class<?>, ModelMapper<?>>();
-		modelLookup = new HashMap<String, Class<?>>();
-		indicesStarted = new HashSet<Class<?>>();
+		mappers.clear();
+		modelLookup.clear();
+		indicesStarted.clear();
 
 		mapperFactory = new DefaultMapperFactory(getIndexPrefix());
 
+		// Connect in the background, client() waits until the cluster is ready
+		clientBootstrap.start();
+
 		// Bind Admin
 		Router.addRoute("GET", "/es-admin", "elasticsearch.ElasticSearchAdmin.index");
 
+		// Create mappers and indices now instead of on the first save
+		if (isBootstrapEnabled()) {
+			bootstrap();
+		}
+
+		// Replay events left in the journal without waiting for the next one
+		if (getDeliveryMode() == ElasticSearchDeliveryMode.JOURNAL) {
+			getIndexEventHandler();
+		}
 	}
 
-	private static void initClient() {
-		ReflectionUtil.clearCache();
+	/**
+	 * Checks if the mappers and indices are created at application start
+	 * 
+	 * @return true, if elasticsearch.bootstrap is enabled
+	 */
+	private static boolean isBootstrapEnabled() {
+		return Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.bootstrap", "false"));
+	}
 
-		// Make sure it doesn't get started more than once
-		if ((client != null) || started) {
-			Logger.debug("Elastic Search Started Already!");
+	/**
+	 * Creates the mappers of all searchable models and starts their indices in
+	 * parallel, reporting the time taken for each model. A model which fails
+	 * is logged and started on its first save, as without bootstrap.
+	 */
+	private static void bootstrap() {
+		final List<Class<? extends Model>> models = getSearchableModels();
+		if (models.isEmpty()) {
 			return;
 		}
 
+		final long start = System.currentTimeMillis();
+		final int threads = Math.min(models.size(), Runtime.getRuntime().availableProcessors());
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(
+				"elasticsearch-bootstrap"));
+		try {
+			final List<Future<?>> results = new ArrayList<Future<?>>();
+			for (final Class<? extends Model> clazz : models) {
+				results.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						final long mapperStart = System.currentTimeMillis();
+						getMapper(clazz);
+						final long indexStart = System.currentTimeMillis();
+						indicesStarted.get(clazz);
+						final long end = System.currentTimeMillis();
+						Logger.info("Elastic Search - bootstrapped %s in %s ms (mapper %s ms, index %s ms)",
+								clazz.getName(), end - mapperStart, indexStart - mapperStart, end - indexStart);
+					}
+				}));
+			}
+
+			for (int i = 0; i < models.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (final ExecutionException e) {
+					Logger.error(e.getCause(), "Elastic Search - could not bootstrap %s", models.get(i).getName());
+				}
+			}
+			Logger.info("Elastic Search - bootstrapped %s models in %s ms", models.size(),
+					System.currentTimeMillis() - start);
+
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.warn("Elastic Search - bootstrap interrupted");
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * This method is called when the application stops - It will stop the
+	 * local indexers
+	 * 
+	 * @see play.PlayPlugin#onApplicationStop()
+	 */
+	@Override
+	public void onApplicationStop() {
+		stopIndexEventHandler();
+		LocalIndexEventHandler.shutdown();
+		ModelHydrator.shutdown();
+	}
+
+	/**
+	 * Gets the handler of the configured delivery mode. It is created and
+	 * started on the first call and kept until the application stops.
+	 * 
+	 * @return the index event handler
+	 */
+	public static IndexEventHandler getIndexEventHandler() {
+		IndexEventHandler handler = indexEventHandler;
+		if (handler == null) {
+			synchronized (indexEventHandlerLock) {
+				handler = indexEventHandler;
+				if (handler == null) {
+					handler = getDeliveryMode().getHandler();
+					if (handler instanceof LifecycleIndexEventHandler) {
+						((LifecycleIndexEventHandler) handler).start();
+					}
+					indexEventHandler = handler;
+				}
+			}
+		}
+		return handler;
+	}
+
+	/**
+	 * Makes the index event handler send the events handled so far, if it
+	 * supports this
+	 */
+	public static void flushIndexEvents() {
+		final IndexEventHandler handler = indexEventHandler;
+		if (handler instanceof LifecycleIndexEventHandler) {
+			((LifecycleIndexEventHandler) handler).flush();
+		}
+	}
+
+	/**
+	 * Stops the index event handler, the next event creates a new one
+	 */
+	private static void stopIndexEventHandler() {
+		synchronized (indexEventHandlerLock) {
+			final IndexEventHandler handler = indexEventHandler;
+			indexEventHandler = null;
+			if (handler instanceof LifecycleIndexEventHandler) {
+				try {
+					((LifecycleIndexEventHandler) handler).stop();
+				} catch (final Throwable t) {
+					Logger.error(ExceptionUtil.getStackTrace(t));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports the state of the local index queues
+	 * 
+	 * @see play.PlayPlugin#getStatus()
+	 */
+	@Override
+	public String getStatus() {
+		StringWriter sw = new StringWriter();
+		PrintWriter out = new PrintWriter(sw);
+		out.println("Elastic Search:");
+		out.println("~~~~~~~~~~~~~~~");
+		out.println("Client: " + getClientState());
+		IndexWorkerPool workerPool = LocalIndexEventHandler.getRunningWorkerPool();
+		if (workerPool == null) {
+			out.println("Local indexers not started");
+		} else {
+			out.println("Queued events: " + workerPool.getQueueDepth());
+			IndexEventQueue[] queues = workerPool.getQueues();
+			for (int i = 0; i < queues.length; i++) {
+				out.println("Indexer " + (i + 1) + ": " + queues[i]);
+			}
+		}
+		return sw.toString();
+	}
+
+	private static Client createClient() {
+		ReflectionUtil.clearCache();
+		Client client = null;
+
 		// Start Node Builder
 		final Builder settings = ImmutableSettings.settingsBuilder();
 		// settings.put("client.transport.sniff", true);
@@ -275,6 +475,7 @@ public class ElasticSearchPlugin extends PlayPlugin {
 			throw new RuntimeException(
 					"Elastic Search Client cannot be null - please check the configuration provided and the health of your Elastic Search instances.");
 		}
+		return client;
 	}
 
 	public static String getIndexPrefix() {
@@ -287,24 +488,11 @@ public class ElasticSearchPlugin extends PlayPlugin {
 
 	@SuppressWarnings("unchecked")
 	public static <M> ModelMapper<M> getMapper(final Class<M> clazz) {
-		if (mappers.containsKey(clazz)) {
-			return (ModelMapper<M>) mappers.get(clazz);
-		}
-
-		final ModelMapper<M> mapper = mapperFactory.getMapper(clazz);
-		mappers.put(clazz, mapper);
-		modelLookup.put(mapper.getTypeName(), clazz);
-
-		return mapper;
+		return (ModelMapper<M>) mappers.get(clazz);
 	}
 
 	private static void startIndexIfNeeded(final Class<Model> clazz) {
-		if (!indicesStarted.contains(clazz)) {
-			final ModelMapper<Model> mapper = getMapper(clazz);
-			Logger.info("Start Index for Class: %s", clazz);
-			ElasticSearchAdapter.startIndex(client(), mapper);
-			indicesStarted.add(clazz);
-		}
+		indicesStarted.get(clazz);
 	}
 
 	private static boolean isInterestingEvent(final String event) {
@@ -365,9 +553,7 @@ public class ElasticSearchPlugin extends PlayPlugin {
 		// Sync with Elastic Search
 		Logger.debug("Elastic Search Index Event: %s", event);
 		if (event != null) {
-			final ElasticSearchDeliveryMode deliveryMode = getDeliveryMode();
-			final IndexEventHandler handler = deliveryMode.getHandler();
-			handler.handle(event);
+			getIndexEventHandler().handle(event);
 		}
 	}
 
@@ -383,30 +569,107 @@ public class ElasticSearchPlugin extends PlayPlugin {
 		startIndexIfNeeded(clazz);
 
 		final ElasticSearchIndexEvent event = new ElasticSearchIndexEvent(model, Type.INDEX);
-		final ElasticSearchDeliveryMode deliveryMode = getDeliveryMode();
-		final IndexEventHandler handler = deliveryMode.getHandler();
-		handler.handle(event);
+		getIndexEventHandler().handle(event);
 	}
 
 	public static void batchProcessBlockedOperations() {
 		Model model;
 		try {
+			// Models saved several times while blocked are only sent once
+			final CoalescingBuffer buffer = new CoalescingBuffer(Integer.MAX_VALUE, 0);
 			while ((model = blockedIndexOperations.poll()) != null) {
-				@SuppressWarnings("unchecked")
-				final ModelMapper<Model> mapper = (ModelMapper<Model>) getMapper(model.getClass());
-
-				ElasticSearchAdapter.indexModel(client(), mapper, model);
+				buffer.add(new ElasticSearchIndexEvent(model, Type.INDEX));
 			}
 			while ((model = blockedDeleteOperations.poll()) != null) {
-				@SuppressWarnings("unchecked")
-				final ModelMapper<Model> mapper = (ModelMapper<Model>) getMapper(model.getClass());
-				ElasticSearchAdapter.deleteModel(client(), mapper, model);
+				buffer.add(new ElasticSearchIndexEvent(model, Type.DELETE));
 			}
+			final BulkIndexer bulkIndexer = new BulkIndexer();
+			buffer.drainTo(bulkIndexer);
+			bulkIndexer.flush();
 		} catch (final Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Rebuilds the index of a model from its table, see {@link Reindexer}
+	 * 
+	 * @param clazz
+	 *            the model class
+	 * @return the number of indexed documents
+	 */
+	public static <M extends Model> long reindex(final Class<M> clazz) {
+		return reindex(new Reindexer<M>(clazz), clazz);
+	}
+
+	/**
+	 * Rebuilds the index of a model from its table, see {@link Reindexer}
+	 * 
+	 * @param clazz
+	 *            the model class
+	 * @param workers
+	 *            number of chunks indexed in parallel
+	 * @param chunkSize
+	 *            number of entities per chunk
+	 * @return the number of indexed documents
+	 */
+	public static <M extends Model> long reindex(final Class<M> clazz, final int workers, final int chunkSize) {
+		return reindex(new Reindexer<M>(clazz, workers, chunkSize), clazz);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long reindex(final Reindexer<?> reindexer, final Class<? extends Model> clazz) {
+		if (MappingUtil.isSearchable(clazz) == false) {
+			throw new IllegalArgumentException("model is not searchable");
+		}
+
+		startIndexIfNeeded((Class<Model>) clazz);
+		return reindexer.run();
+	}
+
+	/**
+	 * Rebuilds the index of a model without downtime, together with all
+	 * models sharing the index, see {@link IndexRebuild}
+	 * 
+	 * @param clazz
+	 *            the model class
+	 * @return the name of the new index version
+	 */
+	public static String rebuildIndex(final Class<? extends Model> clazz) {
+		if (MappingUtil.isSearchable(clazz) == false) {
+			throw new IllegalArgumentException("model is not searchable");
+		}
+
+		final String indexName = getMapper(clazz).getIndexName();
+		final List<Class<? extends Model>> models = new ArrayList<Class<? extends Model>>();
+		for (final Class<? extends Model> model : getSearchableModels()) {
+			if (getMapper(model).getIndexName().equals(indexName)) {
+				models.add(model);
+			}
+		}
+		if (models.contains(clazz) == false) {
+			models.add(clazz);
+		}
+
+		return new IndexRebuild(indexName, models).run();
+	}
+
+	/**
+	 * Gets all models annotated with {@link ElasticSearchable}
+	 * 
+	 * @return the searchable models
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Class<? extends Model>> getSearchableModels() {
+		final List<Class<? extends Model>> models = new ArrayList<Class<? extends Model>>();
+		for (final Class<?> clazz : Play.classloader.getAnnotatedClasses(ElasticSearchable.class)) {
+			if (Model.class.isAssignableFrom(clazz)) {
+				models.add((Class<? extends Model>) clazz);
+			}
+		}
+		return models;
+	}
+
 	public static boolean isBlockEvents() {
 		return blockEvents;
 	}
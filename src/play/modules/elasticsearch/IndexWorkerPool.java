@@ -0,0 +1,156 @@
+package play.modules.elasticsearch;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import play.Logger;
+import play.Play;
+import play.modules.elasticsearch.queue.IndexEventQueue;
+import play.modules.elasticsearch.util.NamedThreadFactory;
+
+/**
+ * Pool of {@link ElasticSearchIndexer}s which process index events in
+ * parallel.
+ *
+ * <p>
+ * Events are partitioned by their document key, so all events for the same
+ * document are handled by the same indexer, in the order they were published.
+ * The number of indexers can be set in conf/application.conf:
+ *
+ * <pre>
+ * elasticsearch.indexer.workers = 4
+ * </pre>
+ *
+ * It defaults to the number of available processors.
+ */
+public class IndexWorkerPool {
+
+	/** Time to wait for the indexers to drain their queues on shutdown */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	/** The indexers, one per partition */
+	private final ElasticSearchIndexer[] workers;
+
+	/** The executor running the indexers */
+	private final ExecutorService executor;
+
+	/**
+	 * Creates and starts a pool with the configured number of indexers
+	 */
+	public IndexWorkerPool() {
+		this(getWorkerCount());
+	}
+
+	/**
+	 * Creates and starts a pool
+	 *
+	 * @param size
+	 *            the number of indexers
+	 */
+	public IndexWorkerPool(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("At least one indexer is required");
+		}
+
+		Logger.info("Starting %s Elastic Search indexers", size);
+		workers = new ElasticSearchIndexer[size];
+		executor = Executors.newFixedThreadPool(size, new NamedThreadFactory("elasticsearch-indexer"));
+		for (int i = 0; i < size; i++) {
+			workers[i] = new ElasticSearchIndexer(new IndexEventQueue("indexer-" + (i + 1)));
+			executor.execute(workers[i]);
+		}
+	}
+
+	private static int getWorkerCount() {
+		String s = Play.configuration.getProperty("elasticsearch.indexer.workers");
+		if (s == null) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return Integer.parseInt(s);
+	}
+
+	/**
+	 * Queues an event with the indexer responsible for its document
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void publish(ElasticSearchIndexEvent event) {
+		try {
+			workers[partition(event.getDocumentKey(), workers.length)].getQueue().put(event);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.error("Interrupted while queueing %s", event);
+		}
+	}
+
+	/**
+	 * Makes all indexers send their pending events without waiting for the
+	 * flush interval
+	 */
+	public void flush() {
+		for (ElasticSearchIndexer worker : workers) {
+			worker.flush();
+		}
+	}
+
+	/**
+	 * Gets the total number of queued events
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (ElasticSearchIndexer worker : workers) {
+			depth += worker.getQueue().size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Gets the queues of the indexers, e.g. to read their metrics
+	 *
+	 * @return the queues, one per indexer
+	 */
+	public IndexEventQueue[] getQueues() {
+		IndexEventQueue[] queues = new IndexEventQueue[workers.length];
+		for (int i = 0; i < workers.length; i++) {
+			queues[i] = workers[i].getQueue();
+		}
+		return queues;
+	}
+
+	/**
+	 * Gets the partition of a document key. The same key always gets the
+	 * same partition, also for negative hash codes.
+	 *
+	 * @param documentKey
+	 *            the document key
+	 * @param partitions
+	 *            the number of partitions
+	 * @return the partition
+	 */
+	public static int partition(String documentKey, int partitions) {
+		return (documentKey.hashCode() & Integer.MAX_VALUE) % partitions;
+	}
+
+	/**
+	 * Stops all indexers once they have processed their queued events
+	 */
+	public void shutdown() {
+		for (ElasticSearchIndexer worker : workers) {
+			worker.stop();
+		}
+		executor.shutdown();
+
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				Logger.warn("Elastic Search indexers did not stop within %s seconds", SHUTDOWN_TIMEOUT_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
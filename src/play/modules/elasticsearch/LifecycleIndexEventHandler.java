@@ -0,0 +1,28 @@
+package play.modules.elasticsearch;
+
+/**
+ * An {@link IndexEventHandler} which holds resources, e.g. connections or
+ * buffers. The plugin creates the handler of the configured delivery mode once
+ * and calls {@link #start()} before the first event and {@link #stop()} when
+ * the application stops. In dev mode the application restarts when the
+ * configuration changes, which replaces the handler.
+ */
+public interface LifecycleIndexEventHandler extends IndexEventHandler {
+
+	/**
+	 * Called once before the first event is handled
+	 */
+	public void start();
+
+	/**
+	 * Sends the events handled so far without waiting for batches to fill up
+	 */
+	public void flush();
+
+	/**
+	 * Called once when the application stops, after the last event. Events
+	 * handled so far should be sent before releasing the resources.
+	 */
+	public void stop();
+
+}
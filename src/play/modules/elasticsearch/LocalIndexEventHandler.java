@@ -3,22 +3,71 @@ package play.modules.elasticsearch;
 /**
  * Handler which processes events locally
  */
-public class LocalIndexEventHandler implements IndexEventHandler {
+public class LocalIndexEventHandler implements LifecycleIndexEventHandler {
 
-	/** Flag that indicates if the indexer has been started */
-	private static boolean indexerStarted = false;
+	/** The indexers, started on the first event */
+	private static volatile IndexWorkerPool workerPool = null;
+
+	/** Held while the indexers are started or stopped */
+	private static final Object workerPoolLock = new Object();
 
 	@Override
 	public void handle(ElasticSearchIndexEvent event) {
-		if (indexerStarted == false) {
-			new ElasticSearchIndexer().now();
-			indexerStarted = true;
+		getWorkerPool().publish(event);
+	}
+
+	@Override
+	public void start() {
+		getWorkerPool();
+	}
+
+	@Override
+	public void flush() {
+		IndexWorkerPool pool = getRunningWorkerPool();
+		if (pool != null) {
+			pool.flush();
+		}
+	}
+
+	@Override
+	public void stop() {
+		shutdown();
+	}
+
+	private static IndexWorkerPool getWorkerPool() {
+		// Publishing takes no lock once the indexers are running
+		IndexWorkerPool pool = workerPool;
+		if (pool == null) {
+			synchronized (workerPoolLock) {
+				pool = workerPool;
+				if (pool == null) {
+					pool = new IndexWorkerPool();
+					workerPool = pool;
+				}
+			}
 		}
-		ElasticSearchIndexer.stream.publish(event);
+		return pool;
+	}
+
+	/**
+	 * Gets the running indexers
+	 * 
+	 * @return the indexers, null if not started yet
+	 */
+	public static IndexWorkerPool getRunningWorkerPool() {
+		return workerPool;
 	}
 
-	static void markIndexerStarted() {
-		indexerStarted = true;
+	/**
+	 * Stops the indexers, if they have been started
+	 */
+	static void shutdown() {
+		synchronized (workerPoolLock) {
+			if (workerPool != null) {
+				workerPool.shutdown();
+				workerPool = null;
+			}
+		}
 	}
 
 }
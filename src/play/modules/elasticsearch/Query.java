@@ -1,11 +1,15 @@
 package play.modules.elasticsearch;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.lang.Validate;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.facet.AbstractFacetBuilder;
 import org.elasticsearch.search.sort.SortBuilder;
@@ -13,11 +17,17 @@ import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 
 import play.Logger;
+import play.Play;
 import play.db.Model;
+import play.jobs.Job;
+import play.libs.F;
+import play.modules.elasticsearch.search.ScrollIterator;
 import play.modules.elasticsearch.search.SearchResults;
+import play.modules.elasticsearch.transformer.HitSource;
 import play.modules.elasticsearch.transformer.JPATransformer;
 import play.modules.elasticsearch.transformer.MapperTransformer;
 import play.modules.elasticsearch.transformer.SimpleTransformer;
+import play.modules.elasticsearch.transformer.Transformer;
 
 /**
  * An elastic search query
@@ -27,6 +37,12 @@ import play.modules.elasticsearch.transformer.SimpleTransformer;
  */
 public class Query<T extends Model> {
 
+	/** Default number of hits per batch when scrolling */
+	private static final int DEFAULT_SCROLL_SIZE = 100;
+
+	/** Default time the server keeps a scroll between two batches */
+	private static final TimeValue DEFAULT_SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
 	private final Class<T> clazz;
 	private final QueryBuilder builder;
 	private final List<AbstractFacetBuilder> facets;
@@ -37,6 +53,7 @@ public class Query<T extends Model> {
 
 	private boolean hydrate = false;
 	private boolean useMapper = false;
+	private String[] fields = null;
 
 	Query(Class<T> clazz, QueryBuilder builder) {
 		Validate.notNull(clazz, "clazz cannot be null");
@@ -74,13 +91,15 @@ public class Query<T extends Model> {
 	}
 
 	/**
-	 * Controls entity hydration
+	 * Controls entity hydration. Cannot be combined with
+	 * {@link #fields(String...)}.
 	 * 
 	 * @param hydrate
 	 *            hydrate entities
 	 * @return self
 	 */
 	public Query<T> hydrate(boolean hydrate) {
+		Validate.isTrue(!hydrate || fields == null, "hydrate cannot be combined with fields");
 		this.hydrate = hydrate;
 
 		return this;
@@ -99,6 +118,24 @@ public class Query<T extends Model> {
 		return this;
 	}
 
+	/**
+	 * Fetches only some fields of the documents instead of the whole source.
+	 * The models of the results only have these fields set. Patterns like
+	 * {@code author.*} select all fields of an object. Cannot be combined
+	 * with {@link #hydrate(boolean)}, hydrated entities are loaded whole.
+	 * 
+	 * @param fields
+	 *            the fields, as named in the index
+	 * @return self
+	 */
+	public Query<T> fields(String... fields) {
+		Validate.notEmpty(fields, "fields cannot be empty");
+		Validate.isTrue(!hydrate, "fields cannot be combined with hydrate");
+		this.fields = fields;
+
+		return this;
+	}
+
 	/**
 	 * Adds a facet
 	 * 
@@ -150,6 +187,118 @@ public class Query<T extends Model> {
 	 * @return the search results
 	 */
 	public SearchResults<T> fetch() {
+		SearchResponse searchResponse = page(buildRequest()).execute().actionGet();
+		return toSearchResults(searchResponse);
+	}
+
+	/**
+	 * Runs the query without blocking the calling thread. In a controller the
+	 * results can be awaited with {@code await(query.fetchAsync())}.
+	 * 
+	 * <p>
+	 * Entities are hydrated in a {@link Job}, as the JPA context is not
+	 * available in the thread receiving the response.
+	 * 
+	 * @return the promise of the search results
+	 */
+	public F.Promise<SearchResults<T>> fetchAsync() {
+		final F.Promise<SearchResults<T>> promise = new F.Promise<SearchResults<T>>();
+
+		try {
+			page(buildRequest()).execute(new ActionListener<SearchResponse>() {
+
+				@Override
+				public void onResponse(final SearchResponse searchResponse) {
+					if (hydrate) {
+						new Job<Void>() {
+							@Override
+							public void doJob() {
+								redeem(promise, searchResponse);
+							}
+						}.now();
+					} else {
+						redeem(promise, searchResponse);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					promise.invokeWithException(t);
+				}
+			});
+
+		} catch (Throwable t) {
+			promise.invokeWithException(t);
+		}
+		return promise;
+	}
+
+	/**
+	 * Iterates over all results with the default batch size, see
+	 * {@link #scroll(int)}
+	 * 
+	 * @return the results
+	 */
+	public Iterable<T> stream() {
+		return scroll(size > 0 ? size : DEFAULT_SCROLL_SIZE);
+	}
+
+	/**
+	 * Iterates over all results without paging. Results are fetched and
+	 * transformed in batches while iterating, only the current batch is held
+	 * in memory. Each call to {@link Iterable#iterator()} runs the query again.
+	 * 
+	 * <p>
+	 * Unsorted queries are executed as a scan, which is the cheapest way to
+	 * read many hits; a batch then holds up to batchSize hits per shard.
+	 * Facets and from are ignored. How long the server keeps the scroll
+	 * between two batches can be set in conf/application.conf:
+	 * 
+	 * <pre>
+	 * elasticsearch.scroll.keepAlive = 1m
+	 * </pre>
+	 * 
+	 * @param batchSize
+	 *            the number of hits to fetch at once
+	 * @return the results
+	 */
+	public Iterable<T> scroll(final int batchSize) {
+		Validate.isTrue(batchSize > 0, "batchSize must be positive");
+
+		return new Iterable<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				TimeValue keepAlive = getScrollKeepAlive();
+
+				SearchRequestBuilder request = buildRequest();
+				request.setSearchType(sorts.isEmpty() ? SearchType.SCAN : SearchType.QUERY_THEN_FETCH);
+				request.setScroll(keepAlive);
+				request.setSize(batchSize);
+
+				SearchResponse searchResponse = request.execute().actionGet();
+				return new ScrollIterator<T>(ElasticSearch.client(), searchResponse, keepAlive, getTransformer(),
+						clazz);
+			}
+		};
+	}
+
+	private static TimeValue getScrollKeepAlive() {
+		return TimeValue.parseTimeValue(Play.configuration.getProperty("elasticsearch.scroll.keepAlive"),
+				DEFAULT_SCROLL_KEEP_ALIVE);
+	}
+
+	private void redeem(F.Promise<SearchResults<T>> promise, SearchResponse searchResponse) {
+		SearchResults<T> searchResults;
+		try {
+			searchResults = toSearchResults(searchResponse);
+		} catch (Throwable t) {
+			promise.invokeWithException(t);
+			return;
+		}
+		promise.invoke(searchResults);
+	}
+
+	private SearchRequestBuilder buildRequest() {
 		// Build request
 		SearchRequestBuilder request = ElasticSearch.builder(builder, clazz);
 
@@ -163,32 +312,43 @@ public class Query<T extends Model> {
 			request.addSort(sort);
 		}
 
-		// Paging
-		if (from > -1) {
-			request.setFrom(from);
-		}
-		if (size > -1) {
-			request.setSize(size);
-		}
-
 		// Only load id field for hydrate
 		if (hydrate) {
 			request.addField("_id");
+		} else if (fields != null) {
+			// Only the requested part of the source
+			request.setNoFields();
+			request.addPartialField(HitSource.PARTIAL_FIELD, fields, null);
 		}
 
 		if (Logger.isDebugEnabled()) {
 			Logger.debug("ES Query: %s", builder.toString());
 		}
 
-		SearchResponse searchResponse = request.execute().actionGet();
-		SearchResults<T> searchResults = null;
+		return request;
+	}
+
+	private SearchRequestBuilder page(SearchRequestBuilder request) {
+		if (from > -1) {
+			request.setFrom(from);
+		}
+		if (size > -1) {
+			request.setSize(size);
+		}
+		return request;
+	}
+
+	private SearchResults<T> toSearchResults(SearchResponse searchResponse) {
+		return getTransformer().toSearchResults(searchResponse, clazz);
+	}
+
+	private Transformer<T> getTransformer() {
 		if (hydrate) {
-			searchResults = new JPATransformer<T>().toSearchResults(searchResponse, clazz);
+			return new JPATransformer<T>();
 		} else if (useMapper) {
-			searchResults = new MapperTransformer<T>().toSearchResults(searchResponse, clazz);
+			return new MapperTransformer<T>();
 		} else {
-			searchResults = new SimpleTransformer<T>().toSearchResults(searchResponse, clazz);
+			return new SimpleTransformer<T>();
 		}
-		return searchResults;
 	}
 }
@@ -0,0 +1,42 @@
+package play.modules.elasticsearch.adapter;
+
+import org.elasticsearch.action.ActionListener;
+
+import play.libs.F;
+
+/**
+ * A Play {@link F.Promise} which is redeemed by an Elastic Search
+ * {@link ActionListener} callback.
+ *
+ * <p>
+ * Pass it as the listener of an asynchronous client call, e.g.
+ * {@code client.index(request, promise)}, and the calling thread is free
+ * while the request is in flight. In a controller the promise can be awaited
+ * with {@code await(promise)}.
+ *
+ * @param <T>
+ *            the response type
+ */
+public class ActionListenerPromise<T> extends F.Promise<T> implements ActionListener<T> {
+
+	/**
+	 * Redeems the promise with the response
+	 *
+	 * @see org.elasticsearch.action.ActionListener#onResponse(java.lang.Object)
+	 */
+	@Override
+	public void onResponse(T response) {
+		invoke(response);
+	}
+
+	/**
+	 * Redeems the promise with the failure
+	 *
+	 * @see org.elasticsearch.action.ActionListener#onFailure(java.lang.Throwable)
+	 */
+	@Override
+	public void onFailure(Throwable t) {
+		invokeWithException(t);
+	}
+
+}
@@ -0,0 +1,102 @@
+package play.modules.elasticsearch.adapter;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import play.Logger;
+import play.Play;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.util.BufferPool;
+
+/**
+ * Renders models to documents in the format set in conf/application.conf:
+ *
+ * <pre>
+ * elasticsearch.document.format = smile
+ * </pre>
+ *
+ * Either json (the default) or smile, the binary form of JSON. Elastic Search
+ * detects the format of each document, so both can be mixed in one index.
+ * Documents are compact, they are never pretty printed.
+ *
+ * <p>
+ * Each thread reuses its buffer for rendering. Buffers which grew beyond
+ * elasticsearch.document.maxBufferBytes (default 262144) are not kept.
+ */
+public abstract class DocumentSerializer {
+
+	/** Rendering buffers */
+	private static final BufferPool buffers = new BufferPool(getMaxBufferBytes());
+
+	private DocumentSerializer() {
+		// private
+	}
+
+	private static int getMaxBufferBytes() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.document.maxBufferBytes", "262144"));
+	}
+
+	/**
+	 * Gets the configured document format
+	 *
+	 * @return the content type
+	 */
+	public static XContentType getContentType() {
+		String format = Play.configuration.getProperty("elasticsearch.document.format", "json");
+		if (format.equalsIgnoreCase("smile")) {
+			return XContentType.SMILE;
+		}
+		return XContentType.JSON;
+	}
+
+	/**
+	 * Renders a model
+	 *
+	 * @param <T>
+	 *            the model type
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the document
+	 * @throws IOException
+	 */
+	public static <T> BytesReference serialize(ModelMapper<T> mapper, T model) throws IOException {
+		BytesStreamOutput buffer = buffers.acquire();
+
+		try {
+			XContentBuilder builder = new XContentBuilder(XContentFactory.xContent(getContentType()), buffer);
+			mapper.addModel(model, builder);
+
+			// The buffer is reused, the document gets its own copy
+			BytesReference document = new BytesArray(builder.bytes().toBytes());
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("Index json: %s", toJson(document));
+			}
+			return document;
+
+		} finally {
+			buffers.release(buffer);
+		}
+	}
+
+	/**
+	 * Converts a document to JSON, e.g. for logging
+	 *
+	 * @param document
+	 *            the document in any format
+	 * @return the JSON string
+	 * @throws IOException
+	 */
+	public static String toJson(BytesReference document) throws IOException {
+		return XContentHelper.convertToJson(document, false);
+	}
+
+}
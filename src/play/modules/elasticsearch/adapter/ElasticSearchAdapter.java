@@ -20,22 +20,32 @@ package play.modules.elasticsearch.adapter;
 
 import java.io.IOException;
 
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesResponse;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.indices.IndexAlreadyExistsException;
 
 import play.Logger;
 import play.db.Model;
+import play.libs.F;
 import play.modules.elasticsearch.mapping.MappingUtil;
 import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.reindex.IndexRebuild;
 import play.modules.elasticsearch.util.ExceptionUtil;
 
 /**
@@ -57,7 +67,8 @@ public abstract class ElasticSearchAdapter {
 	}
 
 	/**
-	 * Creates the index.
+	 * Creates the index as its first version behind an alias, e.g. posts_v1
+	 * for posts, so it can be rebuilt later, see {@link IndexRebuild}.
 	 * 
 	 * @param client
 	 *            the client
@@ -68,19 +79,51 @@ public abstract class ElasticSearchAdapter {
 		String indexName = mapper.getIndexName();
 
 		try {
-			Logger.debug("Starting Elastic Search Index %s", indexName);
-			CreateIndexResponse response = client.admin().indices()
-					.create(new CreateIndexRequest(indexName)).actionGet();
-			Logger.debug("Response: %s", response);
+			if (exists(client.admin().cluster().prepareState().setFilterNodes(true).setFilterRoutingTable(true)
+					.execute().actionGet(), indexName)) {
+				return;
+			}
 
-		} catch (IndexAlreadyExistsException iaee) {
-			Logger.debug("Index already exists: %s", indexName);
+			String version = IndexRebuild.getVersionName(indexName, 1);
+			try {
+				Logger.debug("Starting Elastic Search Index %s as %s", indexName, version);
+				CreateIndexResponse response = client.admin().indices().create(new CreateIndexRequest(version))
+						.actionGet();
+				Logger.debug("Response: %s", response);
+
+			} catch (IndexAlreadyExistsException iaee) {
+				Logger.debug("Index already exists: %s", version);
+			}
+			client.admin().indices().prepareAliases().addAlias(version, indexName).execute().actionGet();
 
 		} catch (Throwable t) {
 			Logger.warn(ExceptionUtil.getStackTrace(t));
 		}
 	}
 
+	/**
+	 * Checks if an index name is an alias or an index. Indices created
+	 * before indices were versioned are not aliases.
+	 * 
+	 * @param state
+	 *            the cluster state
+	 * @param indexName
+	 *            the index name
+	 * @return true if the index name exists
+	 */
+	private static boolean exists(ClusterStateResponse state, String indexName) {
+		MetaData metaData = state.state().metaData();
+		if (metaData.aliases().containsKey(indexName)) {
+			Logger.debug("Index is an alias: %s", indexName);
+			return true;
+		}
+		if (metaData.hasIndex(indexName)) {
+			Logger.debug("Index already exists: %s", indexName);
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Creates the type.
 	 * 
@@ -97,7 +140,9 @@ public abstract class ElasticSearchAdapter {
 			Logger.debug("Create Elastic Search Type %s/%s", indexName, typeName);
 			PutMappingRequest request = Requests.putMappingRequest(indexName).type(typeName);
 			XContentBuilder mapping = MappingUtil.getMapping(mapper);
-			Logger.debug("Type mapping: \n %s", mapping.string());
+			if (Logger.isDebugEnabled()) {
+				Logger.debug("Type mapping: \n %s", mapping.string());
+			}
 			request.source(mapping);
 			PutMappingResponse response = client.admin().indices().putMapping(request).actionGet();
 			Logger.debug("Response: %s", response);
@@ -134,31 +179,18 @@ public abstract class ElasticSearchAdapter {
 			return;
 		}
 
-		// Define Content Builder
-		XContentBuilder contentBuilder = null;
+		// Define Index Name
+		String indexName = mapper.getIndexName();
+		String typeName = mapper.getTypeName();
+		String documentId = mapper.getDocumentId(model);
+		Logger.debug("Index Name: %s", indexName);
 
 		// Index Model
-		try {
-			// Define Index Name
-			String indexName = mapper.getIndexName();
-			String typeName = mapper.getTypeName();
-			String documentId = mapper.getDocumentId(model);
-			Logger.debug("Index Name: %s", indexName);
-
-			contentBuilder = XContentFactory.jsonBuilder().prettyPrint();
-			mapper.addModel(model, contentBuilder);
-			Logger.debug("Index json: %s", contentBuilder.string());
-			IndexResponse response = client.prepareIndex(indexName, typeName, documentId)
-					.setSource(contentBuilder).execute().actionGet();
-
-			// Log Debug
-			Logger.debug("Index Response: %s", response);
-
-		} finally {
-			if (contentBuilder != null) {
-				contentBuilder.close();
-			}
-		}
+		IndexResponse response = client.prepareIndex(indexName, typeName, documentId)
+				.setSource(DocumentSerializer.serialize(mapper, model), false).execute().actionGet();
+
+		// Log Debug
+		Logger.debug("Index Response: %s", response);
 	}
 
 	/**
@@ -187,4 +219,240 @@ public abstract class ElasticSearchAdapter {
 
 	}
 
+	/**
+	 * Creates the index and the type of a model without blocking. A new index
+	 * is created as its first version behind an alias. An index which
+	 * already exists or is an alias is not an error.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @return the promise of the put mapping response
+	 */
+	public static <T> F.Promise<PutMappingResponse> startIndexAsync(final Client client,
+			final ModelMapper<T> mapper) {
+		final ActionListenerPromise<PutMappingResponse> promise = new ActionListenerPromise<PutMappingResponse>();
+		final String indexName = mapper.getIndexName();
+
+		client.admin().cluster().prepareState().setFilterNodes(true).setFilterRoutingTable(true).execute(
+				new ActionListener<ClusterStateResponse>() {
+
+					@Override
+					public void onResponse(ClusterStateResponse response) {
+						if (exists(response, indexName)) {
+							createTypeAsync(client, mapper, promise);
+						} else {
+							createIndexAsync(client, mapper, promise);
+						}
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						promise.onFailure(t);
+					}
+				});
+
+		return promise;
+	}
+
+	/**
+	 * Creates the first version of the index, its alias and then the type
+	 * without blocking.
+	 *
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param promise
+	 *            the promise to redeem
+	 */
+	private static void createIndexAsync(final Client client, final ModelMapper<?> mapper,
+			final ActionListenerPromise<PutMappingResponse> promise) {
+		final String indexName = mapper.getIndexName();
+		final String version = IndexRebuild.getVersionName(indexName, 1);
+
+		Logger.debug("Starting Elastic Search Index %s as %s", indexName, version);
+		client.admin().indices().create(new CreateIndexRequest(version), new ActionListener<CreateIndexResponse>() {
+
+			@Override
+			public void onResponse(CreateIndexResponse response) {
+				Logger.debug("Response: %s", response);
+				createAliasAsync(client, mapper, version, promise);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				Throwable cause = ExceptionsHelper.unwrapCause(t);
+				if (cause instanceof IndexAlreadyExistsException) {
+					Logger.debug("Index already exists: %s", version);
+					createAliasAsync(client, mapper, version, promise);
+				} else {
+					promise.onFailure(t);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Points the alias to the first version of the index and then creates
+	 * the type without blocking.
+	 *
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param version
+	 *            the first version of the index
+	 * @param promise
+	 *            the promise to redeem
+	 */
+	private static void createAliasAsync(final Client client, final ModelMapper<?> mapper, String version,
+			final ActionListenerPromise<PutMappingResponse> promise) {
+		client.admin().indices().prepareAliases().addAlias(version, mapper.getIndexName()).execute(
+				new ActionListener<IndicesAliasesResponse>() {
+
+					@Override
+					public void onResponse(IndicesAliasesResponse response) {
+						createTypeAsync(client, mapper, promise);
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						promise.onFailure(t);
+					}
+				});
+	}
+
+	/**
+	 * Creates the type without blocking.
+	 *
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param promise
+	 *            the promise to redeem
+	 */
+	private static void createTypeAsync(Client client, ModelMapper<?> mapper,
+			ActionListenerPromise<PutMappingResponse> promise) {
+		try {
+			Logger.debug("Create Elastic Search Type %s/%s", mapper.getIndexName(), mapper.getTypeName());
+			PutMappingRequest request = Requests.putMappingRequest(mapper.getIndexName()).type(
+					mapper.getTypeName());
+			request.source(MappingUtil.getMapping(mapper));
+			client.admin().indices().putMapping(request, promise);
+
+		} catch (Throwable t) {
+			promise.onFailure(t);
+		}
+	}
+
+	/**
+	 * Index model without blocking.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the promise of the index response
+	 */
+	public static <T> F.Promise<IndexResponse> indexModelAsync(Client client, ModelMapper<T> mapper, T model) {
+		Logger.debug("Index Model: %s", model);
+		ActionListenerPromise<IndexResponse> promise = new ActionListenerPromise<IndexResponse>();
+
+		try {
+			client.index(prepareIndexRequest(mapper, model), promise);
+		} catch (Throwable t) {
+			promise.onFailure(t);
+		}
+		return promise;
+	}
+
+	/**
+	 * Delete model without blocking.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param client
+	 *            the client
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the promise of the delete response
+	 */
+	public static <T> F.Promise<DeleteResponse> deleteModelAsync(Client client, ModelMapper<T> mapper, T model) {
+		Logger.debug("Delete Model: %s", model);
+		ActionListenerPromise<DeleteResponse> promise = new ActionListenerPromise<DeleteResponse>();
+
+		try {
+			client.delete(prepareDeleteRequest(mapper, model), promise);
+		} catch (Throwable t) {
+			promise.onFailure(t);
+		}
+		return promise;
+	}
+
+	/**
+	 * Executes a bulk request without blocking.
+	 *
+	 * @param client
+	 *            the client
+	 * @param request
+	 *            the bulk request
+	 * @return the promise of the bulk response
+	 */
+	public static F.Promise<BulkResponse> bulkAsync(Client client, BulkRequest request) {
+		ActionListenerPromise<BulkResponse> promise = new ActionListenerPromise<BulkResponse>();
+
+		try {
+			client.bulk(request, promise);
+		} catch (Throwable t) {
+			promise.onFailure(t);
+		}
+		return promise;
+	}
+
+	/**
+	 * Builds an index request for a model without executing it, e.g. for use
+	 * in a bulk request.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the index request
+	 * @throws IOException
+	 */
+	public static <T> IndexRequest prepareIndexRequest(ModelMapper<T> mapper, T model) throws IOException {
+		return Requests.indexRequest(mapper.getIndexName()).type(mapper.getTypeName())
+				.id(mapper.getDocumentId(model)).source(DocumentSerializer.serialize(mapper, model), false);
+	}
+
+	/**
+	 * Builds a delete request for a model without executing it, e.g. for use
+	 * in a bulk request.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param mapper
+	 *            the model mapper
+	 * @param model
+	 *            the model
+	 * @return the delete request
+	 */
+	public static <T> DeleteRequest prepareDeleteRequest(ModelMapper<T> mapper, T model) {
+		return Requests.deleteRequest(mapper.getIndexName()).type(mapper.getTypeName())
+				.id(mapper.getDocumentId(model));
+	}
+
 }
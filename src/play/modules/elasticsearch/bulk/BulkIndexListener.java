@@ -0,0 +1,32 @@
+package play.modules.elasticsearch.bulk;
+
+import java.util.List;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+
+/**
+ * Receives the failures of a {@link BulkIndexer}
+ */
+public interface BulkIndexListener {
+
+	/**
+	 * Called for each event which could not be indexed or deleted
+	 *
+	 * @param event
+	 *            the failed event
+	 * @param failureMessage
+	 *            the failure reported by Elastic Search
+	 */
+	public void onItemFailure(ElasticSearchIndexEvent event, String failureMessage);
+
+	/**
+	 * Called when a bulk request failed as a whole
+	 *
+	 * @param events
+	 *            the events contained in the bulk request
+	 * @param t
+	 *            the cause
+	 */
+	public void onBulkFailure(List<ElasticSearchIndexEvent> events, Throwable t);
+
+}
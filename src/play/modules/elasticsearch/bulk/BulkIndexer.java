@@ -0,0 +1,457 @@
+package play.modules.elasticsearch.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.index.VersionType;
+
+import play.Logger;
+import play.Play;
+import play.db.Model;
+import play.libs.F;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.adapter.ElasticSearchAdapter;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.reindex.IndexRebuild;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Accumulates index events and ships them to Elastic Search as a single bulk
+ * request.
+ *
+ * <p>
+ * Pending events are flushed as soon as their number, their estimated size or
+ * the age of the oldest one exceeds the configured thresholds:
+ *
+ * <pre>
+ * elasticsearch.bulk.actions=500
+ * elasticsearch.bulk.bytes=5242880
+ * elasticsearch.bulk.flushInterval=1000
+ * elasticsearch.bulk.concurrentRequests=1
+ * </pre>
+ *
+ * <p>
+ * Bulk requests are sent without blocking, so the next bulk request can be
+ * collected while the previous one is in flight. At most
+ * elasticsearch.bulk.concurrentRequests bulk requests are in flight at once,
+ * further flushes wait until one has completed. With the default of 1 bulk
+ * requests are applied in the order they were flushed; with more, two updates
+ * of the same document in different bulk requests may be applied out of
+ * order.
+ *
+ * <p>
+ * This class is not meant to be shared between threads, although all methods
+ * are thread-safe to allow flushing from another thread. Only a thread which
+ * flushes waits for a bulk request in flight, adding events never does.
+ */
+public class BulkIndexer {
+
+	/** The outcome of a flush */
+	public static enum Result {
+
+		/** All events were indexed or deleted */
+		SUCCESS,
+
+		/** Some events failed, they were reported to the listener */
+		ITEM_FAILURES,
+
+		/** The bulk request failed as a whole */
+		FAILURE;
+
+	}
+
+	/** Failure of a versioned write which is older than the document */
+	private static final String VERSION_CONFLICT = "VersionConflictEngineException";
+
+	/** Estimated size of a delete action, which carries no source */
+	private static final int DELETE_ACTION_SIZE = 64;
+
+	/** Maximum number of actions per bulk request */
+	private final int maxActions;
+
+	/** Maximum estimated size of a bulk request in bytes */
+	private final long maxBytes;
+
+	/** Maximum time in milliseconds an event may be pending */
+	private final long flushInterval;
+
+	/** Maximum number of bulk requests in flight */
+	private final int concurrentRequests;
+
+	/** Failure listener */
+	private final BulkIndexListener listener;
+
+	/** One permit per bulk request which may be in flight */
+	private final Semaphore inFlight;
+
+	/** Held while a flush waits for a permit, so bulk requests are sent in flush order */
+	private final Object flushLock = new Object();
+
+	/** The pending events, in the same order as the bulk request items */
+	private List<ElasticSearchIndexEvent> pendingEvents;
+
+	/** The pending bulk request */
+	private BulkRequest bulkRequest;
+
+	/** The estimated size of the pending bulk request */
+	private long pendingBytes;
+
+	/** Time at which the oldest pending event was added */
+	private long firstEventTime;
+
+	/**
+	 * Creates a bulk indexer using the thresholds from the configuration
+	 */
+	public BulkIndexer() {
+		this(getMaxActions(), getMaxBytes(), getFlushInterval(), getConcurrentRequests(),
+				new LoggingBulkIndexListener());
+	}
+
+	/**
+	 * Creates a bulk indexer with one bulk request in flight at a time
+	 *
+	 * @param maxActions
+	 *            maximum number of actions per bulk request
+	 * @param maxBytes
+	 *            maximum estimated size of a bulk request
+	 * @param flushInterval
+	 *            maximum time in milliseconds an event may be pending
+	 * @param listener
+	 *            the failure listener
+	 */
+	public BulkIndexer(int maxActions, long maxBytes, long flushInterval, BulkIndexListener listener) {
+		this(maxActions, maxBytes, flushInterval, 1, listener);
+	}
+
+	/**
+	 * Creates a bulk indexer
+	 *
+	 * @param maxActions
+	 *            maximum number of actions per bulk request
+	 * @param maxBytes
+	 *            maximum estimated size of a bulk request
+	 * @param flushInterval
+	 *            maximum time in milliseconds an event may be pending
+	 * @param concurrentRequests
+	 *            maximum number of bulk requests in flight
+	 * @param listener
+	 *            the failure listener
+	 */
+	public BulkIndexer(int maxActions, long maxBytes, long flushInterval, int concurrentRequests,
+			BulkIndexListener listener) {
+		if (concurrentRequests < 1) {
+			throw new IllegalArgumentException("At least one concurrent bulk request is required");
+		}
+		this.maxActions = maxActions;
+		this.maxBytes = maxBytes;
+		this.flushInterval = flushInterval;
+		this.concurrentRequests = concurrentRequests;
+		this.listener = listener;
+		this.inFlight = new Semaphore(concurrentRequests);
+		reset();
+	}
+
+	private static int getMaxActions() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.actions", "500"));
+	}
+
+	private static long getMaxBytes() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.bulk.bytes", "5242880"));
+	}
+
+	private static long getFlushInterval() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.bulk.flushInterval", "1000"));
+	}
+
+	private static int getConcurrentRequests() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.concurrentRequests", "1"));
+	}
+
+	private void reset() {
+		pendingEvents = new ArrayList<ElasticSearchIndexEvent>();
+		bulkRequest = new BulkRequest();
+		pendingBytes = 0;
+	}
+
+	/**
+	 * Adds an event to the pending bulk request, flushing if a threshold is
+	 * reached
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void add(ElasticSearchIndexEvent event) {
+		if (append(event)) {
+			flushAsync();
+		}
+	}
+
+	/**
+	 * Adds an event to the pending bulk request
+	 *
+	 * @return true if a threshold is reached
+	 */
+	private synchronized boolean append(ElasticSearchIndexEvent event) {
+		try {
+			// While an index is rebuilt, changes are written to the new index as well
+			switch (event.getType()) {
+			case INDEX:
+				IndexRequest indexRequest = toIndexRequest(event);
+				add(event, indexRequest, indexRequest.source().length());
+				String rebuildIndex = IndexRebuild.getRebuildIndex(indexRequest.index());
+				if (rebuildIndex != null) {
+					add(event, Requests.indexRequest(rebuildIndex).type(indexRequest.type()).id(indexRequest.id())
+							.source(indexRequest.source(), false).version(IndexRebuild.nextVersion())
+							.versionType(VersionType.EXTERNAL), indexRequest.source().length());
+				}
+				break;
+			case DELETE:
+				DeleteRequest deleteRequest = toDeleteRequest(event);
+				add(event, deleteRequest, DELETE_ACTION_SIZE);
+				rebuildIndex = IndexRebuild.getRebuildIndex(deleteRequest.index());
+				if (rebuildIndex != null) {
+					add(event, Requests.deleteRequest(rebuildIndex).type(deleteRequest.type()).id(deleteRequest.id())
+							.version(IndexRebuild.nextVersion()).versionType(VersionType.EXTERNAL), DELETE_ACTION_SIZE);
+				}
+				break;
+			}
+		} catch (Throwable t) {
+			listener.onItemFailure(event, ExceptionUtil.getStackTrace(t));
+			return false;
+		}
+
+		return pendingEvents.size() >= maxActions || pendingBytes >= maxBytes;
+	}
+
+	private void add(ElasticSearchIndexEvent event, ActionRequest request, long size) {
+		if (pendingEvents.isEmpty()) {
+			firstEventTime = System.currentTimeMillis();
+		}
+		// Bulk items and pending events must stay in the same order
+		if (request instanceof IndexRequest) {
+			bulkRequest.add((IndexRequest) request);
+		} else {
+			bulkRequest.add((DeleteRequest) request);
+		}
+		pendingEvents.add(event);
+		pendingBytes += size;
+	}
+
+	/**
+	 * Builds the index request for an event
+	 *
+	 * @param event
+	 *            the event
+	 * @return the index request
+	 * @throws IOException
+	 */
+	protected IndexRequest toIndexRequest(ElasticSearchIndexEvent event) throws IOException {
+		if (event.isReference()) {
+			throw new IllegalArgumentException("The document of " + event + " has not been loaded");
+		}
+		if (event.isDetached()) {
+			return Requests.indexRequest(event.getIndexName()).type(event.getTypeName()).id(event.getDocumentId())
+					.source(event.getSource());
+		}
+
+		Model object = event.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		return ElasticSearchAdapter.prepareIndexRequest(mapper, object);
+	}
+
+	/**
+	 * Builds the delete request for an event
+	 *
+	 * @param event
+	 *            the event
+	 * @return the delete request
+	 */
+	protected DeleteRequest toDeleteRequest(ElasticSearchIndexEvent event) {
+		if (event.isDetached()) {
+			return Requests.deleteRequest(event.getIndexName()).type(event.getTypeName()).id(event.getDocumentId());
+		}
+
+		Model object = event.getObject();
+		@SuppressWarnings("unchecked")
+		ModelMapper<Model> mapper = (ModelMapper<Model>) ElasticSearchPlugin.getMapper(object.getClass());
+		return ElasticSearchAdapter.prepareDeleteRequest(mapper, object);
+	}
+
+	/**
+	 * Gets the number of pending events
+	 *
+	 * @return the number of pending events
+	 */
+	public synchronized int size() {
+		return pendingEvents.size();
+	}
+
+	/**
+	 * Gets the time in milliseconds until the pending events are due to be
+	 * flushed. Returns the flush interval if there are no pending events.
+	 *
+	 * @return the flush delay
+	 */
+	public synchronized long getFlushDelay() {
+		if (pendingEvents.isEmpty()) {
+			return flushInterval;
+		}
+		return Math.max(0, firstEventTime + flushInterval - System.currentTimeMillis());
+	}
+
+	/**
+	 * Checks if the pending events are due to be flushed
+	 *
+	 * @return true if there are pending events older than the flush interval
+	 */
+	public synchronized boolean isFlushDue() {
+		return !pendingEvents.isEmpty() && getFlushDelay() == 0;
+	}
+
+	/**
+	 * Sends all pending events to Elastic Search without waiting for the
+	 * response. Waits only if the maximum number of bulk requests is already
+	 * in flight. Item failures are reported to the listener.
+	 *
+	 * @return the promise of the result
+	 */
+	public F.Promise<Result> flushAsync() {
+		final F.Promise<Result> result = new F.Promise<Result>();
+		synchronized (flushLock) {
+			final List<ElasticSearchIndexEvent> events;
+			BulkRequest request;
+			synchronized (this) {
+				if (pendingEvents.isEmpty()) {
+					result.invoke(Result.SUCCESS);
+					return result;
+				}
+				events = pendingEvents;
+				request = bulkRequest;
+				reset();
+			}
+
+			// Events can be added while this flush waits
+			try {
+				inFlight.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				listener.onBulkFailure(events, e);
+				result.invoke(Result.FAILURE);
+				return result;
+			}
+
+			try {
+				send(request, new ActionListener<BulkResponse>() {
+
+					@Override
+					public void onResponse(BulkResponse response) {
+						Result outcome = Result.SUCCESS;
+						try {
+							Logger.debug("Elastic Search - bulk request of %s events took %s", events.size(),
+									response.took());
+
+							if (response.hasFailures()) {
+								for (BulkItemResponse item : response.items()) {
+									// Only writes to a version being rebuilt are versioned, the newer change won
+									if (item.failed() && !item.failureMessage().contains(VERSION_CONFLICT)) {
+										outcome = Result.ITEM_FAILURES;
+										listener.onItemFailure(events.get(item.itemId()), item.failureMessage());
+									}
+								}
+							}
+						} finally {
+							inFlight.release();
+							result.invoke(outcome);
+						}
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						try {
+							listener.onBulkFailure(events, t);
+						} finally {
+							inFlight.release();
+							result.invoke(Result.FAILURE);
+						}
+					}
+				});
+
+			} catch (Throwable t) {
+				inFlight.release();
+				listener.onBulkFailure(events, t);
+				result.invoke(Result.FAILURE);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sends a bulk request
+	 *
+	 * @param request
+	 *            the bulk request
+	 * @param responseListener
+	 *            receives the response
+	 */
+	protected void send(BulkRequest request, ActionListener<BulkResponse> responseListener) {
+		Client client = ElasticSearchPlugin.client();
+		client.bulk(request, responseListener);
+	}
+
+	/**
+	 * Sends all pending events to Elastic Search and waits until all bulk
+	 * requests in flight have completed. Item failures are reported to the
+	 * listener.
+	 *
+	 * @return the result of the last bulk request
+	 */
+	public Result flush() {
+		F.Promise<Result> result = flushAsync();
+		try {
+			awaitInFlight();
+			return result.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Result.FAILURE;
+
+		} catch (ExecutionException e) {
+			return Result.FAILURE;
+		}
+	}
+
+	/**
+	 * Waits until all bulk requests in flight have completed
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void awaitInFlight() throws InterruptedException {
+		inFlight.acquire(concurrentRequests);
+		inFlight.release(concurrentRequests);
+	}
+
+	/**
+	 * Gets the number of bulk requests in flight
+	 *
+	 * @return the number of bulk requests in flight
+	 */
+	public int getInFlightCount() {
+		return concurrentRequests - inFlight.availablePermits();
+	}
+
+}
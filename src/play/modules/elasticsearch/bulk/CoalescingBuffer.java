@@ -0,0 +1,146 @@
+package play.modules.elasticsearch.bulk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import play.Play;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+
+/**
+ * Collects index events during a flush window, keeping only the latest event
+ * per document.
+ *
+ * <p>
+ * If a model is saved several times before the window closes, only its last
+ * {@link ElasticSearchIndexEvent.Type#INDEX} or
+ * {@link ElasticSearchIndexEvent.Type#DELETE} event is passed on, so the
+ * document is rendered and sent once. The window closes after
+ * elasticsearch.bulk.flushInterval milliseconds, or as soon as
+ * elasticsearch.bulk.actions distinct documents are pending.
+ *
+ * <p>
+ * This class is not thread safe.
+ */
+public class CoalescingBuffer {
+
+	/** Maximum number of pending documents */
+	private final int maxDocuments;
+
+	/** Length of the flush window in milliseconds */
+	private final long flushInterval;
+
+	/** Latest event per document key, in order of last update */
+	private final Map<String, ElasticSearchIndexEvent> events = new LinkedHashMap<String, ElasticSearchIndexEvent>();
+
+	/** Time at which the window opened */
+	private long windowStart;
+
+	/** Number of events replaced by a newer event for the same document */
+	private long coalescedCount = 0;
+
+	/**
+	 * Creates a buffer using the thresholds from the configuration
+	 */
+	public CoalescingBuffer() {
+		this(Integer.parseInt(Play.configuration.getProperty("elasticsearch.bulk.actions", "500")), Long
+				.parseLong(Play.configuration.getProperty("elasticsearch.bulk.flushInterval", "1000")));
+	}
+
+	/**
+	 * Creates a buffer
+	 *
+	 * @param maxDocuments
+	 *            maximum number of pending documents
+	 * @param flushInterval
+	 *            length of the flush window in milliseconds
+	 */
+	public CoalescingBuffer(int maxDocuments, long flushInterval) {
+		this.maxDocuments = maxDocuments;
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Adds an event, replacing any pending event for the same document
+	 *
+	 * @param event
+	 *            the event
+	 */
+	public void add(ElasticSearchIndexEvent event) {
+		if (events.isEmpty()) {
+			windowStart = System.currentTimeMillis();
+		}
+
+		// Remove first, so the document moves to the end of the iteration order
+		if (events.remove(event.getDocumentKey()) != null) {
+			coalescedCount++;
+		}
+		events.put(event.getDocumentKey(), event);
+	}
+
+	/**
+	 * Gets the number of pending documents
+	 *
+	 * @return the number of pending documents
+	 */
+	public int size() {
+		return events.size();
+	}
+
+	/**
+	 * Gets the time in milliseconds until the window closes. Returns the flush
+	 * interval if there are no pending events.
+	 *
+	 * @return the flush delay
+	 */
+	public long getFlushDelay() {
+		if (events.isEmpty()) {
+			return flushInterval;
+		}
+		return Math.max(0, windowStart + flushInterval - System.currentTimeMillis());
+	}
+
+	/**
+	 * Checks if the pending events are due to be flushed
+	 *
+	 * @return true if the window has closed or is full
+	 */
+	public boolean isFlushDue() {
+		return !events.isEmpty() && (events.size() >= maxDocuments || getFlushDelay() == 0);
+	}
+
+	/**
+	 * Removes and returns all pending events, closing the window
+	 *
+	 * @return the latest event of each document
+	 */
+	public List<ElasticSearchIndexEvent> drain() {
+		List<ElasticSearchIndexEvent> drained = new ArrayList<ElasticSearchIndexEvent>(events.values());
+		events.clear();
+		return drained;
+	}
+
+	/**
+	 * Moves all pending events to a bulk indexer, closing the window
+	 *
+	 * @param bulkIndexer
+	 *            the bulk indexer
+	 */
+	public void drainTo(BulkIndexer bulkIndexer) {
+		for (ElasticSearchIndexEvent event : drain()) {
+			bulkIndexer.add(event);
+		}
+	}
+
+	/**
+	 * Gets the number of events replaced by a newer event for the same
+	 * document since the buffer was created
+	 *
+	 * @return the number of coalesced events
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+}
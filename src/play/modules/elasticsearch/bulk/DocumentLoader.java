@@ -0,0 +1,152 @@
+package play.modules.elasticsearch.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import play.Logger;
+import play.data.binding.Binder;
+import play.db.Model;
+import play.db.jpa.JPA;
+import play.db.jpa.Transactional;
+import play.jobs.Job;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+/**
+ * Loads the documents of reference events from the database, see
+ * {@link ElasticSearchIndexEvent#isReference()}. The models are loaded with
+ * one query per model class and chunk of ids and rendered in the same
+ * read-only transaction. A model which no longer exists is deleted from the
+ * index instead. Other events are returned as they are, in the same order.
+ *
+ * <p>
+ * Returns null if loading failed, e.g. because the database is unavailable.
+ */
+@Transactional(readOnly = true)
+public class DocumentLoader extends Job<List<ElasticSearchIndexEvent>> {
+
+	/** Maximum number of ids in one query */
+	private static final int MAX_IDS_PER_QUERY = 1000;
+
+	/** The events */
+	private final List<ElasticSearchIndexEvent> events;
+
+	/**
+	 * Creates a loader
+	 *
+	 * @param events
+	 *            the events, some of which may be references
+	 */
+	public DocumentLoader(List<ElasticSearchIndexEvent> events) {
+		this.events = events;
+	}
+
+	@Override
+	public List<ElasticSearchIndexEvent> doJobWithResult() throws IOException {
+		// Document ids by type, in order of appearance
+		Map<String, Set<String>> references = new LinkedHashMap<String, Set<String>>();
+		for (ElasticSearchIndexEvent event : events) {
+			if (event.isReference()) {
+				Set<String> ids = references.get(event.getTypeName());
+				if (ids == null) {
+					ids = new LinkedHashSet<String>();
+					references.put(event.getTypeName(), ids);
+				}
+				ids.add(event.getDocumentId());
+			}
+		}
+		if (references.isEmpty()) {
+			return events;
+		}
+
+		Set<String> unknownTypes = new HashSet<String>();
+		Map<String, Model> models = new HashMap<String, Model>();
+		for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+			Class<? extends Model> clazz = lookupModel(entry.getKey());
+			if (clazz == null) {
+				Logger.error("Elastic Search - no model for type %s, skipping %s documents", entry.getKey(), entry
+						.getValue().size());
+				unknownTypes.add(entry.getKey());
+				continue;
+			}
+			load(clazz, new ArrayList<String>(entry.getValue()), models);
+		}
+
+		List<ElasticSearchIndexEvent> loaded = new ArrayList<ElasticSearchIndexEvent>(events.size());
+		for (ElasticSearchIndexEvent event : events) {
+			if (!event.isReference()) {
+				loaded.add(event);
+			} else if (!unknownTypes.contains(event.getTypeName())) {
+				Model model = models.get(event.getDocumentKey());
+				if (model != null) {
+					loaded.add(new ElasticSearchIndexEvent(model, Type.INDEX).detach());
+				} else {
+					// Deleted since the event was sent
+					loaded.add(new ElasticSearchIndexEvent(event.getIndexName(), event.getTypeName(), event
+							.getDocumentId(), Type.DELETE, null));
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Loads the models of a class in chunks, keyed by document key
+	 */
+	@SuppressWarnings("unchecked")
+	private static <M extends Model> void load(Class<M> clazz, List<String> documentIds, Map<String, Model> models) {
+		EntityManager em = JPA.em();
+		String entityName = em.getMetamodel().entity(clazz).getName();
+		Model.Factory factory = Model.Manager.factoryFor(clazz);
+		ModelMapper<M> mapper = ElasticSearchPlugin.getMapper(clazz);
+
+		for (int from = 0; from < documentIds.size(); from += MAX_IDS_PER_QUERY) {
+			List<Object> keys = new ArrayList<Object>();
+			for (String documentId : documentIds.subList(from, Math.min(from + MAX_IDS_PER_QUERY, documentIds.size()))) {
+				try {
+					keys.add(Binder.directBind(documentId, factory.keyType()));
+				} catch (Exception e) {
+					Logger.error("Elastic Search - invalid id %s for %s", documentId, clazz.getName());
+				}
+			}
+			if (keys.isEmpty()) {
+				continue;
+			}
+
+			List<M> chunk = em.createQuery(
+					"select e from " + entityName + " e where e." + factory.keyName() + " in (:ids)", clazz)
+					.setParameter("ids", keys).getResultList();
+			for (M model : chunk) {
+				models.put(mapper.getTypeName() + "#" + mapper.getDocumentId(model), model);
+			}
+		}
+	}
+
+	/**
+	 * Looks up the model of a type, creating the mappers of all searchable
+	 * models if it is not known yet
+	 */
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Model> lookupModel(String typeName) {
+		Class<?> clazz = ElasticSearchPlugin.lookupModel(typeName);
+		if (clazz == null) {
+			for (Class<? extends Model> model : ElasticSearchPlugin.getSearchableModels()) {
+				ElasticSearchPlugin.getMapper(model);
+			}
+			clazz = ElasticSearchPlugin.lookupModel(typeName);
+		}
+		return (Class<? extends Model>) clazz;
+	}
+
+}
@@ -0,0 +1,25 @@
+package play.modules.elasticsearch.bulk;
+
+import java.util.List;
+
+import play.Logger;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * {@link BulkIndexListener} which logs all failures
+ */
+public class LoggingBulkIndexListener implements BulkIndexListener {
+
+	@Override
+	public void onItemFailure(ElasticSearchIndexEvent event, String failureMessage) {
+		Logger.error("Elastic Search - %s failed: %s", event, failureMessage);
+	}
+
+	@Override
+	public void onBulkFailure(List<ElasticSearchIndexEvent> events, Throwable t) {
+		Logger.error("Elastic Search - bulk request of %s events failed: %s", events.size(),
+				ExceptionUtil.getStackTrace(t));
+	}
+
+}
@@ -0,0 +1,560 @@
+package play.modules.elasticsearch.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import play.Logger;
+
+/**
+ * Append-only log of records on disk, split into segment files.
+ *
+ * <p>
+ * Each record is written with its length and checksum. {@link #append(byte[])}
+ * returns once the record has been forced to disk; threads appending at the
+ * same time share one fsync (group commit). Records are read back from a
+ * {@link Position}, never beyond the last forced record, and segments before
+ * a position can be deleted once their records have been processed.
+ *
+ * <p>
+ * On opening, a partly written record at the end of the last segment, e.g.
+ * after a crash, is cut off.
+ */
+public class Journal {
+
+	/** Marks a segment file, and the version of the record format */
+	private static final int SEGMENT_MAGIC = 0x45534a31;
+
+	/** Size of the segment header */
+	static final int SEGMENT_HEADER_BYTES = 4;
+
+	/** Size of the record header: length and checksum */
+	private static final int RECORD_HEADER_BYTES = 8;
+
+	/** Suffix of the segment files */
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	/** Name of the checkpoint file */
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	/** The directory */
+	private final File directory;
+
+	/** Segments are rolled over once they reach this size */
+	private final long segmentBytes;
+
+	/** The segment written to, guarded by this */
+	private long segmentId;
+
+	/** The channel of the segment written to, null once closed, guarded by this */
+	private FileChannel writeChannel;
+
+	/** End of the written records in the current segment, guarded by this */
+	private long writeOffset;
+
+	/** Guards the sync state */
+	private final Object syncLock = new Object();
+
+	/** All records before this position have been forced to disk */
+	private Position syncedPosition;
+
+	/** Whether a thread is forcing the records to disk */
+	private boolean syncing = false;
+
+	/**
+	 * A position in the journal
+	 */
+	public static final class Position implements Comparable<Position> {
+
+		/** The segment */
+		private final long segmentId;
+
+		/** The offset in the segment */
+		private final long offset;
+
+		/**
+		 * Creates a position
+		 *
+		 * @param segmentId
+		 *            the segment
+		 * @param offset
+		 *            the offset in the segment
+		 */
+		public Position(long segmentId, long offset) {
+			this.segmentId = segmentId;
+			this.offset = offset;
+		}
+
+		public long getSegmentId() {
+			return segmentId;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		@Override
+		public int compareTo(Position other) {
+			if (segmentId != other.segmentId) {
+				return segmentId < other.segmentId ? -1 : 1;
+			}
+			return offset < other.offset ? -1 : (offset == other.offset ? 0 : 1);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Position && compareTo((Position) obj) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (segmentId * 31 + offset);
+		}
+
+		@Override
+		public String toString() {
+			return segmentId + ":" + offset;
+		}
+	}
+
+	/**
+	 * Opens a journal, creating the directory if needed
+	 *
+	 * @param directory
+	 *            the directory
+	 * @param segmentBytes
+	 *            size at which segments are rolled over
+	 * @throws IOException
+	 */
+	public Journal(File directory, long segmentBytes) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create journal directory " + directory);
+		}
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+
+		List<Long> segments = getSegmentIds();
+		if (segments.isEmpty()) {
+			openSegment(1);
+		} else {
+			recover(segments.get(segments.size() - 1));
+		}
+		syncedPosition = new Position(segmentId, writeOffset);
+	}
+
+	/**
+	 * Opens the last segment for appending, cutting off a partly written
+	 * record at its end
+	 */
+	private void recover(long id) throws IOException {
+		File file = getSegmentFile(id);
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		if (channel.size() < SEGMENT_HEADER_BYTES) {
+			// Created but never written
+			channel.close();
+			openSegment(id);
+			return;
+		}
+		long end = scan(channel, id, channel.size(), Integer.MAX_VALUE, null);
+		if (end < channel.size()) {
+			Logger.warn("Cutting off %s bytes at the end of journal segment %s", channel.size() - end, file);
+			channel.truncate(end);
+			channel.force(true);
+		}
+		channel.position(end);
+		segmentId = id;
+		writeChannel = channel;
+		writeOffset = end;
+	}
+
+	/**
+	 * Creates a new segment and makes it the one written to
+	 */
+	private void openSegment(long id) throws IOException {
+		FileChannel channel = new RandomAccessFile(getSegmentFile(id), "rw").getChannel();
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+		header.putInt(SEGMENT_MAGIC);
+		header.flip();
+		channel.truncate(0);
+		writeFully(channel, header);
+		segmentId = id;
+		writeChannel = channel;
+		writeOffset = SEGMENT_HEADER_BYTES;
+	}
+
+	/**
+	 * Appends a record and waits until it has been forced to disk
+	 *
+	 * @param record
+	 *            the record
+	 * @throws IOException
+	 */
+	public void append(byte[] record) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + record.length);
+		buffer.putInt(record.length);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(record);
+		buffer.flip();
+
+		Position end;
+		synchronized (this) {
+			if (writeChannel == null) {
+				throw new IOException("The journal is closed");
+			}
+			if (writeOffset > SEGMENT_HEADER_BYTES && writeOffset + buffer.remaining() > segmentBytes) {
+				roll();
+			}
+			writeFully(writeChannel, buffer);
+			writeOffset += RECORD_HEADER_BYTES + record.length;
+			end = new Position(segmentId, writeOffset);
+		}
+		sync(end);
+	}
+
+	/**
+	 * Forces the current segment to disk and starts a new one, must hold the
+	 * lock
+	 */
+	private void roll() throws IOException {
+		writeChannel.force(false);
+		writeChannel.close();
+		openSegment(segmentId + 1);
+	}
+
+	/**
+	 * Waits until all records before a position have been forced to disk. The
+	 * first waiting thread forces all records written so far, the others wait
+	 * for it.
+	 */
+	private void sync(Position end) throws IOException {
+		synchronized (syncLock) {
+			while (true) {
+				if (syncedPosition.compareTo(end) >= 0) {
+					return;
+				}
+				if (!syncing) {
+					break;
+				}
+				try {
+					syncLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the journal to be synced");
+				}
+			}
+			syncing = true;
+		}
+
+		try {
+			Position target;
+			FileChannel channel;
+			synchronized (this) {
+				target = new Position(segmentId, writeOffset);
+				channel = writeChannel;
+			}
+			if (channel == null) {
+				throw new IOException("The journal is closed");
+			}
+			try {
+				channel.force(false);
+			} catch (ClosedChannelException e) {
+				// Rolled over or closed meanwhile, both force the segment first
+			}
+			synchronized (syncLock) {
+				if (syncedPosition.compareTo(target) < 0) {
+					syncedPosition = target;
+				}
+			}
+
+		} finally {
+			synchronized (syncLock) {
+				syncing = false;
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Gets the position up to which records have been forced to disk
+	 *
+	 * @return the synced position
+	 */
+	public Position getSyncedPosition() {
+		synchronized (syncLock) {
+			return syncedPosition;
+		}
+	}
+
+	/**
+	 * Waits until records after a position have been forced to disk
+	 *
+	 * @param position
+	 *            the position
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @throws InterruptedException
+	 */
+	public void awaitRecords(Position position, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (syncLock) {
+			long remaining = timeout;
+			while (syncedPosition.compareTo(position) <= 0 && remaining > 0) {
+				syncLock.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Gets the position of the first record
+	 *
+	 * @return the start position
+	 */
+	public Position getStartPosition() {
+		List<Long> segments = getSegmentIds();
+		long first = segments.isEmpty() ? getSyncedPosition().getSegmentId() : segments.get(0);
+		return new Position(first, SEGMENT_HEADER_BYTES);
+	}
+
+	/**
+	 * Reads records which have been forced to disk
+	 *
+	 * @param from
+	 *            the position to start reading at
+	 * @param maxRecords
+	 *            maximum number of records to read
+	 * @param records
+	 *            receives the records
+	 * @return the position after the last record read
+	 * @throws IOException
+	 */
+	public Position read(Position from, int maxRecords, List<byte[]> records) throws IOException {
+		Position synced = getSyncedPosition();
+		Position position = from;
+		while (records.size() < maxRecords && position.compareTo(synced) < 0) {
+			File file = getSegmentFile(position.getSegmentId());
+			if (!file.exists()) {
+				position = new Position(position.getSegmentId() + 1, SEGMENT_HEADER_BYTES);
+				continue;
+			}
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// Earlier segments were forced completely before rolling over
+				FileChannel channel = raf.getChannel();
+				long limit = position.getSegmentId() == synced.getSegmentId() ? synced.getOffset() : channel
+						.size();
+				channel.position(position.getOffset());
+				long end = scan(channel, position.getSegmentId(), limit, maxRecords - records.size(), records);
+				if (end < limit && records.size() < maxRecords) {
+					Logger.error("Skipping corrupt journal segment %s after offset %s", file, end);
+					end = limit;
+				}
+				position = new Position(position.getSegmentId(), end);
+				if (end >= limit && position.getSegmentId() < synced.getSegmentId()) {
+					position = new Position(position.getSegmentId() + 1, SEGMENT_HEADER_BYTES);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Reads valid records from the current position of a channel
+	 *
+	 * @param records
+	 *            receives the records, null to only validate them
+	 * @return the offset after the last valid record read
+	 */
+	private long scan(FileChannel channel, long id, long limit, int maxRecords, List<byte[]> records)
+			throws IOException {
+		long offset = channel.position();
+		if (offset == 0) {
+			ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+			if (readFully(channel, header, limit) && header.getInt(0) != SEGMENT_MAGIC) {
+				throw new IOException("Not a journal segment: " + getSegmentFile(id));
+			}
+			offset = SEGMENT_HEADER_BYTES;
+		}
+
+		ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		CRC32 crc = new CRC32();
+		for (int count = 0; count < maxRecords; count++) {
+			recordHeader.clear();
+			if (!readFully(channel, recordHeader, limit)) {
+				break;
+			}
+			int length = recordHeader.getInt(0);
+			if (length < 0 || offset + RECORD_HEADER_BYTES + length > limit) {
+				break;
+			}
+			ByteBuffer record = ByteBuffer.allocate(length);
+			readFully(channel, record, limit);
+			crc.reset();
+			crc.update(record.array());
+			if ((int) crc.getValue() != recordHeader.getInt(4)) {
+				break;
+			}
+			if (records != null) {
+				records.add(record.array());
+			}
+			offset += RECORD_HEADER_BYTES + length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Loads the position up to which records have been processed. A checkpoint
+	 * which is missing or unreadable, e.g. after a crash, is replaced by the
+	 * start position, so the remaining records are indexed again.
+	 *
+	 * @return the checkpoint, the start position if there is none
+	 */
+	public Position loadCheckpoint() {
+		File file = new File(directory, CHECKPOINT_FILE);
+		if (!file.exists()) {
+			// The replaced checkpoint is deleted before the new one is renamed on some platforms
+			file = new File(directory, CHECKPOINT_FILE + ".tmp");
+			if (!file.exists()) {
+				return getStartPosition();
+			}
+		}
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				Position checkpoint = new Position(raf.readLong(), raf.readLong());
+				if (checkpoint.getSegmentId() < 0 || checkpoint.getOffset() < SEGMENT_HEADER_BYTES) {
+					throw new IOException("Invalid position " + checkpoint);
+				}
+				return checkpoint;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			Logger.warn("Could not read the journal checkpoint %s, replaying from the start: %s", file, e);
+			return getStartPosition();
+		}
+	}
+
+	/**
+	 * Saves the position up to which records have been processed and deletes
+	 * the segments before it. The checkpoint is forced to disk before it
+	 * replaces the previous one. The directory itself cannot be forced, so
+	 * after a crash the previous checkpoint may be found; the segments it
+	 * points to which have been deleted are skipped when reading.
+	 *
+	 * @param checkpoint
+	 *            the position
+	 * @throws IOException
+	 */
+	public void saveCheckpoint(Position checkpoint) throws IOException {
+		File file = new File(directory, CHECKPOINT_FILE);
+		File tmp = new File(directory, CHECKPOINT_FILE + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			raf.writeLong(checkpoint.getSegmentId());
+			raf.writeLong(checkpoint.getOffset());
+			// The rename must never expose an empty checkpoint
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// Cannot replace a file on some platforms
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Could not write the journal checkpoint " + file);
+			}
+		}
+
+		for (long id : getSegmentIds()) {
+			if (id < checkpoint.getSegmentId() && !getSegmentFile(id).delete()) {
+				Logger.warn("Could not delete journal segment %s", getSegmentFile(id));
+			}
+		}
+	}
+
+	/**
+	 * Gets the ids of the segments on disk, in ascending order
+	 *
+	 * @return the segment ids
+	 */
+	List<Long> getSegmentIds() {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		List<Long> ids = new ArrayList<Long>();
+		if (names != null) {
+			for (String name : names) {
+				try {
+					ids.add(Long.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// Not a segment
+				}
+			}
+		}
+		Collections.sort(ids);
+		return ids;
+	}
+
+	private File getSegmentFile(long id) {
+		return new File(directory, String.format("%020d%s", id, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Forces the written records to disk and closes the journal
+	 */
+	public synchronized void close() {
+		if (writeChannel != null) {
+			try {
+				writeChannel.force(false);
+				writeChannel.close();
+			} catch (IOException e) {
+				Logger.error("Could not close the journal: %s", e.getMessage());
+			}
+			writeChannel = null;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Fills a buffer, without reading beyond a limit
+	 *
+	 * @return false if the limit or the end of the file was reached first
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long limit) throws IOException {
+		if (channel.position() + buffer.remaining() > limit) {
+			return false;
+		}
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
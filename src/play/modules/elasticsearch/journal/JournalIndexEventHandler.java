@@ -0,0 +1,129 @@
+package play.modules.elasticsearch.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import play.Logger;
+import play.Play;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.LifecycleIndexEventHandler;
+import play.modules.elasticsearch.util.NamedThreadFactory;
+
+/**
+ * Handler which writes events to a {@link Journal} on disk, from which a
+ * {@link JournalReplayer} indexes them. An event is on disk when
+ * {@link #handle(ElasticSearchIndexEvent)} returns, so events survive a
+ * restart or crash without an external broker.
+ */
+public class JournalIndexEventHandler implements LifecycleIndexEventHandler {
+
+	/** Time to wait for the replayer to drain the journal on stop */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	/** The journal, null if not started */
+	private Journal journal = null;
+
+	/** Indexes the journaled events */
+	private JournalReplayer replayer = null;
+
+	/** Runs the replayer */
+	private ExecutorService executor = null;
+
+	@Override
+	public synchronized void start() {
+		File directory = getDirectory();
+		try {
+			journal = new Journal(directory, getSegmentBytes());
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not open the Elastic Search journal in " + directory, e);
+		}
+		Logger.info("Elastic Search journal opened in %s", directory);
+
+		replayer = new JournalReplayer(journal, getBatchSize(), getRetryDelay());
+		executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("elasticsearch-journal"));
+		executor.execute(replayer);
+	}
+
+	@Override
+	public void handle(ElasticSearchIndexEvent event) {
+		try {
+			// Rendered in the calling thread, while the model is attached
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			event.detach().writeTo(new DataOutputStream(bytes));
+			journal.append(bytes.toByteArray());
+
+		} catch (IOException e) {
+			Logger.error("Could not write %s to the Elastic Search journal, the event is lost: %s", event,
+					e.getMessage());
+		}
+	}
+
+	@Override
+	public void flush() {
+		// Events are replayed as soon as they are on disk
+	}
+
+	@Override
+	public synchronized void stop() {
+		replayer.stop();
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				Logger.warn("Elastic Search journal replayer did not stop within %s seconds",
+						SHUTDOWN_TIMEOUT_SECONDS);
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+		journal.close();
+	}
+
+	/**
+	 * Gets the journal directory.
+	 *
+	 * @return the directory, data/elasticsearch-journal in the application by
+	 *         default
+	 */
+	private static File getDirectory() {
+		String s = Play.configuration.getProperty("elasticsearch.journal.path");
+		if (s != null) {
+			return new File(s);
+		}
+		return Play.getFile("data/elasticsearch-journal");
+	}
+
+	/**
+	 * Gets the size at which journal segments are rolled over.
+	 *
+	 * @return the segment size in bytes
+	 */
+	private static long getSegmentBytes() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.journal.segmentBytes", "67108864"));
+	}
+
+	/**
+	 * Gets the maximum number of events per bulk request.
+	 *
+	 * @return the batch size
+	 */
+	private static int getBatchSize() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.journal.batchSize", "500"));
+	}
+
+	/**
+	 * Gets the time to wait before retrying a batch in milliseconds.
+	 *
+	 * @return the retry delay
+	 */
+	private static long getRetryDelay() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.journal.retryDelay", "5000"));
+	}
+
+}
@@ -0,0 +1,153 @@
+package play.modules.elasticsearch.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import play.Logger;
+import play.db.jpa.NoTransaction;
+import play.jobs.Job;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.bulk.BulkIndexer;
+import play.modules.elasticsearch.bulk.CoalescingBuffer;
+import play.modules.elasticsearch.bulk.LoggingBulkIndexListener;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Replays the events in a {@link Journal} to Elastic Search.
+ *
+ * <p>
+ * Events are read in batches from the last checkpoint and sent as one bulk
+ * request per batch, keeping only the latest event per document. Once a
+ * batch has been indexed the checkpoint moves past it and segments before it
+ * are deleted. If Elastic Search cannot be reached, the batch is retried after
+ * the retry delay. After a crash, events since the last checkpoint are
+ * replayed again, in order.
+ */
+@NoTransaction
+public class JournalReplayer extends Job<Void> {
+
+	/** Maximum time in milliseconds to wait for new events before checking for a stop */
+	private static final long POLL_INTERVAL = 100;
+
+	/** The journal */
+	private final Journal journal;
+
+	/** Maximum number of events per bulk request */
+	private final int batchSize;
+
+	/** Time to wait before retrying a batch */
+	private final long retryDelay;
+
+	/** Signals the replayer to stop once the journal is drained */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Creates a replayer
+	 *
+	 * @param journal
+	 *            the journal
+	 * @param batchSize
+	 *            maximum number of events per bulk request
+	 * @param retryDelay
+	 *            time in milliseconds to wait before retrying a batch
+	 */
+	public JournalReplayer(Journal journal, int batchSize, long retryDelay) {
+		this.journal = journal;
+		this.batchSize = batchSize;
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Stops this replayer once the events in the journal have been indexed, or
+	 * Elastic Search could not be reached
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Indexes a batch of events
+	 *
+	 * @param events
+	 *            the events
+	 * @return false if Elastic Search could not be reached
+	 */
+	protected boolean index(List<ElasticSearchIndexEvent> events) {
+		CoalescingBuffer buffer = new CoalescingBuffer(Integer.MAX_VALUE, 0);
+		for (ElasticSearchIndexEvent event : events) {
+			buffer.add(event);
+		}
+		BulkIndexer bulkIndexer = new BulkIndexer(Integer.MAX_VALUE, Long.MAX_VALUE, 0,
+				new LoggingBulkIndexListener());
+		buffer.drainTo(bulkIndexer);
+
+		// Failed items were logged, they would fail again if retried
+		return bulkIndexer.flush() != BulkIndexer.Result.FAILURE;
+	}
+
+	/**
+	 *
+	 * @see play.jobs.Job#doJob()
+	 */
+	@Override
+	public void doJob() throws Exception {
+		Journal.Position position = null;
+		List<byte[]> records = new ArrayList<byte[]>(batchSize);
+		while (true) {
+			try {
+				if (position == null) {
+					position = journal.loadCheckpoint();
+				}
+				records.clear();
+				Journal.Position next = journal.read(position, batchSize, records);
+				if (next.equals(position)) {
+					if (stopped) {
+						return;
+					}
+					journal.awaitRecords(position, POLL_INTERVAL);
+					continue;
+				}
+
+				if (!records.isEmpty() && !index(decode(records))) {
+					if (stopped) {
+						Logger.warn("Elastic Search is unavailable, %s journal events are replayed on the next start",
+								records.size());
+						return;
+					}
+					Logger.warn("Could not index %s journal events, retrying in %s ms", records.size(), retryDelay);
+					Thread.sleep(retryDelay);
+					continue;
+				}
+				journal.saveCheckpoint(next);
+				position = next;
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+
+			} catch (Throwable t) {
+				Logger.error(ExceptionUtil.getStackTrace(t));
+				if (stopped) {
+					return;
+				}
+				Thread.sleep(retryDelay);
+			}
+		}
+	}
+
+	private static List<ElasticSearchIndexEvent> decode(List<byte[]> records) {
+		List<ElasticSearchIndexEvent> events = new ArrayList<ElasticSearchIndexEvent>(records.size());
+		for (byte[] record : records) {
+			try {
+				events.add(ElasticSearchIndexEvent.readFrom(new DataInputStream(new ByteArrayInputStream(record))));
+			} catch (IOException e) {
+				Logger.error("Skipping unreadable journal event: %s", e.getMessage());
+			}
+		}
+		return events;
+	}
+
+}
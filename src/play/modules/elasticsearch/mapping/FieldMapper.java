@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
 
 /**
  * Maps a model field to an Elastic Search index
@@ -40,4 +41,19 @@ public interface FieldMapper<M> {
 	 */
 	public boolean inflate(M model, Map<String, Object> map);
 
+	/**
+	 * Inflates a model from the value a parser is at, if the value belongs to
+	 * this field
+	 * 
+	 * @param model
+	 * @param name
+	 *            the name of the value in the document
+	 * @param parser
+	 *            the parser, at the first token of the value
+	 * @return True if the value belongs to this field and was read, false
+	 *         otherwise, when the parser was not moved
+	 * @throws IOException
+	 */
+	public boolean inflate(M model, String name, XContentParser parser) throws IOException;
+
 }
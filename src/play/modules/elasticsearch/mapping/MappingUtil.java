@@ -3,11 +3,15 @@ package play.modules.elasticsearch.mapping;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.commons.lang.Validate;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalDateTime;
 import org.joda.time.base.BaseLocal;
@@ -151,6 +155,88 @@ public abstract class MappingUtil {
 		return "string";
 	}
 
+	/**
+	 * Inflates an object from a parser, offering each value of the object to
+	 * the field mappers. Values no field mapper takes are skipped.
+	 * 
+	 * @param <M>
+	 *            the object type
+	 * @param object
+	 *            the object to inflate
+	 * @param fields
+	 *            the field mappers of the object
+	 * @param parser
+	 *            the parser, at the start of the object
+	 * @throws IOException
+	 */
+	public static <M> void inflate(M object, List<FieldMapper<M>> fields, XContentParser parser) throws IOException {
+		while (parser.nextToken() == Token.FIELD_NAME) {
+			String name = parser.currentName();
+			parser.nextToken();
+			if (!inflateField(object, fields, name, parser)) {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Offers the value a parser is at to the field mappers until one takes it
+	 * 
+	 * @param <M>
+	 *            the object type
+	 * @param object
+	 *            the object to inflate
+	 * @param fields
+	 *            the field mappers of the object
+	 * @param name
+	 *            the name of the value in the document
+	 * @param parser
+	 *            the parser, at the first token of the value
+	 * @return true if a field mapper took the value, false otherwise
+	 * @throws IOException
+	 */
+	public static <M> boolean inflateField(M object, List<FieldMapper<M>> fields, String name, XContentParser parser)
+			throws IOException {
+		for (FieldMapper<M> field : fields) {
+			if (field.inflate(object, name, parser)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the value a parser is at, as it would appear in the source map of
+	 * a search hit
+	 * 
+	 * @param parser
+	 *            the parser, at the first token of the value
+	 * @return the value
+	 * @throws IOException
+	 */
+	public static Object readValue(XContentParser parser) throws IOException {
+		switch (parser.currentToken()) {
+		case VALUE_STRING:
+			return parser.text();
+		case VALUE_NUMBER:
+			return parser.numberValue();
+		case VALUE_BOOLEAN:
+			return Boolean.valueOf(parser.booleanValue());
+		case VALUE_EMBEDDED_OBJECT:
+			return parser.binaryValue();
+		case START_OBJECT:
+			return parser.map();
+		case START_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			while (parser.nextToken() != Token.END_ARRAY) {
+				list.add(readValue(parser));
+			}
+			return list;
+		default:
+			return null;
+		}
+	}
+
 	public static Object convertValue(final Object value, final Class<?> targetType) {
 		if (targetType.equals(value.getClass())) {
 			// Types match
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
 
 /**
  * Maps a model to an Elastic Search index
@@ -70,4 +71,15 @@ public interface ModelMapper<M> {
 	 * @return
 	 */
 	public M createModel(Map<String, Object> map);
+
+	/**
+	 * Inflates a new model from a parser, without building a map of values
+	 * first
+	 * 
+	 * @param parser
+	 *            the parser, at the start of the document or before it
+	 * @return
+	 * @throws IOException
+	 */
+	public M createModel(XContentParser parser) throws IOException;
 }
@@ -7,7 +7,7 @@ import org.apache.commons.lang.Validate;
 import play.modules.elasticsearch.annotations.ElasticSearchFieldDescriptor;
 import play.modules.elasticsearch.mapping.FieldMapper;
 import play.modules.elasticsearch.mapping.MappingUtil;
-import play.modules.elasticsearch.util.ReflectionUtil;
+import play.modules.elasticsearch.util.FieldAccessor;
 
 /**
  * Abstract base class for {@link FieldMapper}s
@@ -19,6 +19,7 @@ public abstract class AbstractFieldMapper<M> implements FieldMapper<M> {
 
 	protected final Field field;
 	protected final ElasticSearchFieldDescriptor meta;
+	private final FieldAccessor accessor;
 	private final String prefix, indexField;
 
 	public AbstractFieldMapper(final Field field, String prefix) {
@@ -27,6 +28,9 @@ public abstract class AbstractFieldMapper<M> implements FieldMapper<M> {
 		this.meta = new ElasticSearchFieldDescriptor(field);
 		this.prefix = prefix;
 
+		// Look up the field once, not for every document
+		this.accessor = new FieldAccessor(field);
+
 		// Maybe this a premature optimization, but getIndexField() will be
 		// called a lot
 		indexField = prefix(field.getName());
@@ -82,6 +86,17 @@ public abstract class AbstractFieldMapper<M> implements FieldMapper<M> {
 		return indexField;
 	}
 
+	/**
+	 * Checks if a value of the document belongs to the field we represent
+	 * 
+	 * @param name
+	 *            the name of the value in the document
+	 * @return
+	 */
+	protected boolean accepts(String name) {
+		return indexField.equals(name);
+	}
+
 	/**
 	 * Gets the ElasticSearch field type for the field we represent
 	 * 
@@ -105,7 +120,18 @@ public abstract class AbstractFieldMapper<M> implements FieldMapper<M> {
 	 * @return
 	 */
 	protected Object getFieldValue(M model) {
-		return ReflectionUtil.getFieldValue(model, field);
+		return accessor.get(model);
+	}
+
+	/**
+	 * Sets the value of the field we represent on a model instance, converting
+	 * it to the field type where needed
+	 * 
+	 * @param model
+	 * @param value
+	 */
+	protected void setFieldValue(M model, Object value) {
+		accessor.set(model, value);
 	}
 
 }
@@ -11,12 +11,14 @@ import javax.persistence.Transient;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
 
 import play.modules.elasticsearch.annotations.ElasticSearchIgnore;
 import play.modules.elasticsearch.annotations.ElasticSearchTtl;
 import play.modules.elasticsearch.annotations.ElasticSearchable;
 import play.modules.elasticsearch.mapping.FieldMapper;
 import play.modules.elasticsearch.mapping.MapperFactory;
+import play.modules.elasticsearch.mapping.MappingUtil;
 import play.modules.elasticsearch.mapping.ModelMapper;
 import play.modules.elasticsearch.util.ReflectionUtil;
 
@@ -174,4 +176,16 @@ public class AnyClassMapper<M> implements ModelMapper<M> {
 		return model;
 	}
 
+	@Override
+	public M createModel(XContentParser parser) throws IOException {
+		M model = ReflectionUtil.newInstance(clazz);
+
+		if (parser.currentToken() == null) {
+			parser.nextToken();
+		}
+		MappingUtil.inflate(model, mapping, parser);
+
+		return model;
+	}
+
 }
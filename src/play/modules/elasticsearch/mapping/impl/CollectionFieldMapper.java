@@ -9,6 +9,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
 
 import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
 import play.modules.elasticsearch.mapping.FieldMapper;
@@ -158,4 +160,53 @@ public class CollectionFieldMapper<M> extends AbstractFieldMapper<M> {
 		}
 	}
 
+	@Override
+	public boolean inflate(M model, String name, XContentParser parser) throws IOException {
+		if (!accepts(name)) {
+			return false;
+		}
+
+		// Items are converted to the collection type before they are added
+		@SuppressWarnings("unchecked")
+		final Collection<Object> modelValue = (Collection<Object>) getFieldValue(model);
+		if (modelValue == null) {
+			parser.skipChildren();
+		} else if (parser.currentToken() == Token.START_ARRAY) {
+			while (parser.nextToken() != Token.END_ARRAY) {
+				inflateItem(modelValue, parser);
+			}
+		} else {
+			// A single value instead of an array
+			inflateItem(modelValue, parser);
+		}
+
+		return true;
+	}
+
+	private void inflateItem(Collection<Object> modelValue, XContentParser parser) throws IOException {
+		final Class<?> type = getCollectionType();
+
+		if (nestedMode) {
+			// Embedded mode uses mapping
+			if (parser.currentToken() == Token.START_OBJECT) {
+				Object outputItem = ReflectionUtil.newInstance(type);
+				MappingUtil.inflate(outputItem, fields, parser);
+				modelValue.add(outputItem);
+			} else {
+				parser.skipChildren();
+			}
+		} else {
+			// Flat mode uses primitive values or toString
+			Object indexItem = MappingUtil.readValue(parser);
+			if (indexItem != null) {
+				Object modelItem = MappingUtil.convertValue(indexItem, type);
+
+				// This should only succeed for simple types
+				if (type.isAssignableFrom(modelItem.getClass())) {
+					modelValue.add(modelItem);
+				}
+			}
+		}
+	}
+
 }
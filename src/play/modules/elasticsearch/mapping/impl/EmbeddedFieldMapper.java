@@ -7,12 +7,15 @@ import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
 
 import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
 import play.modules.elasticsearch.annotations.ElasticSearchEmbedded.Mode;
 import play.modules.elasticsearch.mapping.FieldMapper;
 import play.modules.elasticsearch.mapping.MapperFactory;
 import play.modules.elasticsearch.mapping.MappingException;
+import play.modules.elasticsearch.mapping.MappingUtil;
 import play.modules.elasticsearch.util.ReflectionUtil;
 import scala.actors.threadpool.Arrays;
 
@@ -179,11 +182,63 @@ public class EmbeddedFieldMapper<M> extends AbstractFieldMapper<M> {
 		}
 
 		if (nonNullValue) {
-			ReflectionUtil.setFieldValue(model, name, value);
+			setFieldValue(model, value);
 			return true;
 		} else {
 			return false;
 		}
 	}
 
+	@Override
+	protected boolean accepts(String name) {
+		switch (embed.mode()) {
+		case embedded:
+			// Our fields are stored in the document which contains us
+			for (FieldMapper<Object> mapper : fields) {
+				if (!(mapper instanceof AbstractFieldMapper) || ((AbstractFieldMapper<Object>) mapper).accepts(name)) {
+					return true;
+				}
+			}
+			return false;
+		default:
+			return getFieldName().equals(name);
+		}
+	}
+
+	@Override
+	public boolean inflate(M model, String name, XContentParser parser) throws IOException {
+		if (!accepts(name)) {
+			return false;
+		}
+
+		switch (embed.mode()) {
+		case embedded:
+			// Fill the value we already have, or a new one if a field is set
+			Object value = getFieldValue(model);
+			boolean newValue = (value == null);
+			if (newValue) {
+				value = ReflectionUtil.newInstance(getFieldType());
+			}
+			boolean nonNullValue = parser.currentToken() != Token.VALUE_NULL;
+			if (!MappingUtil.inflateField(value, fields, name, parser)) {
+				parser.skipChildren();
+			} else if (newValue && nonNullValue) {
+				setFieldValue(model, value);
+			}
+			break;
+		case object:
+		case nested:
+			if (parser.currentToken() == Token.START_OBJECT) {
+				Object nestedValue = ReflectionUtil.newInstance(getFieldType());
+				MappingUtil.inflate(nestedValue, fields, parser);
+				setFieldValue(model, nestedValue);
+			} else {
+				parser.skipChildren();
+			}
+			break;
+		}
+
+		return true;
+	}
+
 }
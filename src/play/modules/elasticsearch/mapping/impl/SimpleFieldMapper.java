@@ -5,9 +5,9 @@ import java.lang.reflect.Field;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
 
 import play.modules.elasticsearch.mapping.MappingUtil;
-import play.modules.elasticsearch.util.ReflectionUtil;
 
 /**
  * Field mapper for simple, single-valued types
@@ -41,13 +41,12 @@ public class SimpleFieldMapper<M> extends AbstractFieldMapper<M> {
 
 	@Override
 	public boolean inflate(M model, Map<String, Object> map) {
-		String modelFieldName = getFieldName();
 		String indexFieldName = getIndexField();
 
 		if (map.containsKey(indexFieldName)) {
 			Object value = map.get(indexFieldName);
 			if (value != null) {
-				ReflectionUtil.setFieldValue(model, modelFieldName, value);
+				setFieldValue(model, value);
 				return true;
 			}
 		}
@@ -55,4 +54,17 @@ public class SimpleFieldMapper<M> extends AbstractFieldMapper<M> {
 		return false;
 	}
 
+	@Override
+	public boolean inflate(M model, String name, XContentParser parser) throws IOException {
+		if (!accepts(name)) {
+			return false;
+		}
+
+		Object value = MappingUtil.readValue(parser);
+		if (value != null) {
+			setFieldValue(model, value);
+		}
+		return true;
+	}
+
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
 
 import play.db.Model;
 import play.modules.elasticsearch.mapping.ModelMapper;
@@ -51,4 +52,9 @@ public class UniversalModelMapper implements ModelMapper<Model> {
 		throw new UnsupportedOperationException("Model mapping is not supported with UniversalModelMapper");
 	}
 
+	@Override
+	public Model createModel(final XContentParser parser) throws IOException {
+		throw new UnsupportedOperationException("Model mapping is not supported with UniversalModelMapper");
+	}
+
 }
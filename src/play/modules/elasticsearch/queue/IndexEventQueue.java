@@ -0,0 +1,459 @@
+package play.modules.elasticsearch.queue;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import play.Logger;
+import play.Play;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Bounded queue of index events.
+ *
+ * <p>
+ * At most a fixed number of events is kept in memory; what happens to further
+ * events is decided by the {@link OverflowPolicy}. Both can be set in
+ * conf/application.conf:
+ *
+ * <pre>
+ * elasticsearch.queue.capacity=10000
+ * elasticsearch.queue.overflow=BLOCK
+ * elasticsearch.queue.spillDirectory=/var/tmp/elasticsearch
+ * elasticsearch.queue.spillSyncInterval=100
+ * </pre>
+ *
+ * Events are always taken in the order they were put, also when they were
+ * spilled to disk. Spilled events are synced to disk at most once per sync
+ * interval in milliseconds, by the first put or poll after the interval,
+ * once the lock is released. A crash of the machine may lose the events
+ * spilled since the last sync; a crash of the application loses none.
+ */
+public class IndexEventQueue {
+
+	/** The events held in memory */
+	private final LinkedList<ElasticSearchIndexEvent> events = new LinkedList<ElasticSearchIndexEvent>();
+
+	/** Maximum number of events held in memory */
+	private final int capacity;
+
+	/** The overflow policy */
+	private final OverflowPolicy policy;
+
+	/** The spill file, null unless the policy is {@link OverflowPolicy#SPILL} */
+	private final SpillFile spillFile;
+
+	/** Minimum time in milliseconds between two syncs of the spill file */
+	private final long spillSyncInterval;
+
+	/** Guards all access */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled when an event was put */
+	private final Condition notEmpty = lock.newCondition();
+
+	/** Signalled when an event was taken */
+	private final Condition notFull = lock.newCondition();
+
+	/** Number of events dropped */
+	private long droppedCount = 0;
+
+	/** Number of events replaced by a newer event for the same document */
+	private long coalescedCount = 0;
+
+	/** Number of events written to disk */
+	private long spilledCount = 0;
+
+	/** Number of times a publisher had to wait */
+	private long blockedCount = 0;
+
+	/** Makes the current or next poll return without waiting */
+	private boolean wakeUpRequested = false;
+
+	/**
+	 * Creates a queue using the capacity and policy from the configuration
+	 *
+	 * @param name
+	 *            the queue name, used to name the spill file
+	 */
+	public IndexEventQueue(String name) {
+		this(getConfiguredCapacity(), getConfiguredPolicy(), new File(getSpillDirectory(), name + ".spill"),
+				getConfiguredSpillSyncInterval());
+	}
+
+	/**
+	 * Creates a queue
+	 *
+	 * @param capacity
+	 *            maximum number of events held in memory
+	 * @param policy
+	 *            the overflow policy
+	 * @param spillFile
+	 *            the file to spill to, only used with
+	 *            {@link OverflowPolicy#SPILL}
+	 */
+	public IndexEventQueue(int capacity, OverflowPolicy policy, File spillFile) {
+		this(capacity, policy, spillFile, 100);
+	}
+
+	/**
+	 * Creates a queue
+	 *
+	 * @param capacity
+	 *            maximum number of events held in memory
+	 * @param policy
+	 *            the overflow policy
+	 * @param spillFile
+	 *            the file to spill to, only used with
+	 *            {@link OverflowPolicy#SPILL}
+	 * @param spillSyncInterval
+	 *            minimum time in milliseconds between two syncs of the spill
+	 *            file, 0 to sync after every put
+	 */
+	public IndexEventQueue(int capacity, OverflowPolicy policy, File spillFile, long spillSyncInterval) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.spillFile = (policy == OverflowPolicy.SPILL) ? new SpillFile(spillFile) : null;
+		this.spillSyncInterval = spillSyncInterval;
+	}
+
+	private static int getConfiguredCapacity() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.queue.capacity", "10000"));
+	}
+
+	private static OverflowPolicy getConfiguredPolicy() {
+		return OverflowPolicy.valueOf(Play.configuration.getProperty("elasticsearch.queue.overflow", "BLOCK")
+				.toUpperCase());
+	}
+
+	private static long getConfiguredSpillSyncInterval() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.queue.spillSyncInterval", "100"));
+	}
+
+	private static File getSpillDirectory() {
+		String s = Play.configuration.getProperty("elasticsearch.queue.spillDirectory");
+		if (s != null) {
+			return new File(s);
+		}
+		if (Play.tmpDir != null) {
+			return new File(Play.tmpDir, "elasticsearch");
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "elasticsearch");
+	}
+
+	/**
+	 * Puts an event into the queue, applying the overflow policy if the queue
+	 * is full
+	 *
+	 * @param event
+	 *            the event
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room in the queue
+	 */
+	public void put(ElasticSearchIndexEvent event) throws InterruptedException {
+		FileDescriptor sync = null;
+		lock.lock();
+		try {
+			// Keep order: once spilling, everything goes to disk until it is drained
+			if (isSpilling() && spill(event)) {
+				sync = spillFile.takeSyncIfDue(spillSyncInterval);
+				return;
+			}
+
+			boolean blocked = false;
+			while (events.size() >= capacity) {
+				if (policy == OverflowPolicy.DROP_OLDEST) {
+					ElasticSearchIndexEvent dropped = events.removeFirst();
+					droppedCount++;
+					Logger.warn("Elastic Search index queue full, dropping %s", dropped);
+
+				} else if (policy == OverflowPolicy.SPILL && spill(event)) {
+					sync = spillFile.takeSyncIfDue(spillSyncInterval);
+					return;
+
+				} else if (policy == OverflowPolicy.COALESCE && coalesce(event)) {
+					return;
+
+				} else {
+					if (!blocked) {
+						blockedCount++;
+						blocked = true;
+					}
+					notFull.await();
+				}
+			}
+
+			events.addLast(event);
+			notEmpty.signal();
+
+		} finally {
+			lock.unlock();
+			sync(sync);
+		}
+	}
+
+	/**
+	 * Syncs the spill file without holding the lock
+	 */
+	private void sync(FileDescriptor fd) {
+		if (fd == null) {
+			return;
+		}
+		try {
+			fd.sync();
+		} catch (SyncFailedException e) {
+			// The spill file was drained and closed meanwhile
+			Logger.debug("Could not sync the Elastic Search spill file: %s", e.getMessage());
+		}
+	}
+
+	private boolean isSpilling() {
+		return spillFile != null && spillFile.size() > 0;
+	}
+
+	private boolean spill(ElasticSearchIndexEvent event) {
+		try {
+			spillFile.write(event);
+			spilledCount++;
+			notEmpty.signal();
+			return true;
+
+		} catch (IOException e) {
+			Logger.error("Could not spill %s to disk, waiting for room in the queue: %s", event,
+					ExceptionUtil.getStackTrace(e));
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the most recent queued event for the same document
+	 */
+	private boolean coalesce(ElasticSearchIndexEvent event) {
+		String documentKey = event.getDocumentKey();
+		ListIterator<ElasticSearchIndexEvent> iterator = events.listIterator(events.size());
+		while (iterator.hasPrevious()) {
+			if (iterator.previous().getDocumentKey().equals(documentKey)) {
+				iterator.set(event);
+				coalescedCount++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Takes the oldest event from the queue, waiting if necessary
+	 *
+	 * @param timeout
+	 *            how long to wait
+	 * @param unit
+	 *            the unit of timeout
+	 * @return the oldest event, or null if none became available
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public ElasticSearchIndexEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+
+		FileDescriptor sync = null;
+		lock.lock();
+		try {
+			// Events spilled since the last put are synced at the latest here
+			if (spillFile != null) {
+				sync = spillFile.takeSyncIfDue(spillSyncInterval);
+			}
+			while (events.isEmpty()) {
+				if (isSpilling()) {
+					unspill();
+				} else if (nanos <= 0 || wakeUpRequested) {
+					wakeUpRequested = false;
+					return null;
+				} else {
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+			}
+
+			ElasticSearchIndexEvent event = events.removeFirst();
+			notFull.signal();
+			return event;
+
+		} finally {
+			lock.unlock();
+			sync(sync);
+		}
+	}
+
+	/**
+	 * Makes a waiting poll return null now, or the next one if none is waiting
+	 * and the queue is empty
+	 */
+	public void wakeUp() {
+		lock.lock();
+		try {
+			wakeUpRequested = true;
+			notEmpty.signalAll();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads spilled events back into memory
+	 */
+	private void unspill() {
+		try {
+			ElasticSearchIndexEvent event;
+			while (events.size() < capacity && (event = spillFile.read()) != null) {
+				events.addLast(event);
+			}
+
+		} catch (IOException e) {
+			Logger.error("Could not read spill file, %s events are lost: %s", spillFile.size(),
+					ExceptionUtil.getStackTrace(e));
+			droppedCount += spillFile.size();
+			spillFile.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of queued events, including those spilled to disk
+	 *
+	 * @return the queue depth
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return events.size() + getSpilledSize();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if the queue is empty
+	 *
+	 * @return true if there are no queued events
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Gets the number of events currently spilled to disk
+	 *
+	 * @return the number of spilled events
+	 */
+	public int getSpilledSize() {
+		lock.lock();
+		try {
+			return spillFile != null ? spillFile.size() : 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the capacity
+	 *
+	 * @return maximum number of events held in memory
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the overflow policy
+	 *
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Gets the number of events dropped since the queue was created
+	 *
+	 * @return the number of dropped events
+	 */
+	public long getDroppedCount() {
+		lock.lock();
+		try {
+			return droppedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of events replaced by a newer event for the same
+	 * document since the queue was created
+	 *
+	 * @return the number of coalesced events
+	 */
+	public long getCoalescedCount() {
+		lock.lock();
+		try {
+			return coalescedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of events written to disk since the queue was created
+	 *
+	 * @return the number of spilled events
+	 */
+	public long getSpilledCount() {
+		lock.lock();
+		try {
+			return spilledCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of times a publisher had to wait for room in the queue
+	 * since the queue was created
+	 *
+	 * @return the number of blocked publishers
+	 */
+	public long getBlockedCount() {
+		lock.lock();
+		try {
+			return blockedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * To String
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return "IndexEventQueue [size=" + events.size() + "/" + capacity + ", policy=" + policy + ", spilled="
+					+ getSpilledSize() + ", dropped=" + droppedCount + ", coalesced=" + coalescedCount
+					+ ", totalSpilled=" + spilledCount + ", blocked=" + blockedCount + "]";
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
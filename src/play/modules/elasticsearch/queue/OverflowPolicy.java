@@ -0,0 +1,22 @@
+package play.modules.elasticsearch.queue;
+
+/**
+ * What an {@link IndexEventQueue} does with an event when it is full
+ */
+public enum OverflowPolicy {
+
+	/** Block the publishing thread until there is room in the queue */
+	BLOCK,
+
+	/** Drop the oldest queued event to make room */
+	DROP_OLDEST,
+
+	/** Write the event to disk, it is read back once the queue has drained */
+	SPILL,
+
+	/**
+	 * Replace a queued event for the same document, block if there is none
+	 */
+	COALESCE;
+
+}
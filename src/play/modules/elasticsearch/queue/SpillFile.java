@@ -0,0 +1,214 @@
+package play.modules.elasticsearch.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import play.Logger;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+
+/**
+ * File which holds the events an {@link IndexEventQueue} could not keep in
+ * memory. Events are read back in the order they were written; the file is
+ * deleted as soon as all of them have been read.
+ *
+ * <p>
+ * Each event is handed to the operating system when it is written, so it
+ * survives a crash of the application. The file is synced to disk at most
+ * once per sync interval, by the queue outside its lock, see
+ * {@link #takeSyncIfDue(long)}. Events left over from a previous run, e.g.
+ * after a crash, are read back before any new event. A partly written last
+ * event is cut off.
+ *
+ * <p>
+ * This class is not thread safe, the queue guards all access.
+ */
+class SpillFile {
+
+	/** The file */
+	private final File file;
+
+	/** Output, open while the file exists */
+	private DataOutputStream out;
+
+	/** The file output below out, used to sync */
+	private FileOutputStream fileOut;
+
+	/** Input, opened on the first read */
+	private DataInputStream in;
+
+	/** Number of events written */
+	private int written = 0;
+
+	/** Number of events read */
+	private int read = 0;
+
+	/** Whether events were written since the last sync */
+	private boolean unsynced = false;
+
+	/** Time of the last sync */
+	private long lastSyncTime = 0;
+
+	SpillFile(File file) {
+		this.file = file;
+
+		if (file.exists()) {
+			recover();
+		}
+	}
+
+	/**
+	 * Counts the events left over from a previous run, so they are read first
+	 */
+	private void recover() {
+		int count = 0;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			long valid = 0;
+			try {
+				while (raf.getFilePointer() < raf.length()) {
+					ElasticSearchIndexEvent.readFrom(raf);
+					valid = raf.getFilePointer();
+					count++;
+				}
+			} catch (IOException e) {
+				// Partly written
+			} catch (RuntimeException e) {
+				// Corrupt
+			}
+			if (valid < raf.length()) {
+				Logger.warn("Cutting off %s bytes at the end of Elastic Search spill file %s", raf.length() - valid,
+						file);
+				raf.setLength(valid);
+			}
+
+		} catch (IOException e) {
+			Logger.error("Could not read Elastic Search spill file %s, the events in it are lost: %s", file,
+					e.getMessage());
+			count = 0;
+
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+
+		if (count > 0) {
+			Logger.info("Indexing %s events left in Elastic Search spill file %s", count, file);
+			written = count;
+		} else {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Appends an event, detaching it if needed
+	 *
+	 * @param event
+	 *            the event
+	 * @throws IOException
+	 */
+	void write(ElasticSearchIndexEvent event) throws IOException {
+		ElasticSearchIndexEvent detached = event.detach();
+		if (out == null) {
+			file.getParentFile().mkdirs();
+			fileOut = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut));
+		}
+		detached.writeTo(out);
+		out.flush();
+		written++;
+		unsynced = true;
+	}
+
+	/**
+	 * Checks if the file is due to be synced. The sync itself is left to the
+	 * caller, so it can be done without holding the queue's lock; syncing a
+	 * file which has been cleared meanwhile fails harmlessly.
+	 *
+	 * @param interval
+	 *            minimum time in milliseconds between two syncs
+	 * @return the file to sync, null if nothing is due
+	 */
+	FileDescriptor takeSyncIfDue(long interval) {
+		long now = System.currentTimeMillis();
+		if (!unsynced || fileOut == null || now - lastSyncTime < interval) {
+			return null;
+		}
+		try {
+			FileDescriptor fd = fileOut.getFD();
+			unsynced = false;
+			lastSyncTime = now;
+			return fd;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the next event
+	 *
+	 * @return the next event, null if all events have been read
+	 * @throws IOException
+	 */
+	ElasticSearchIndexEvent read() throws IOException {
+		if (read == written) {
+			return null;
+		}
+		if (in == null) {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+
+		ElasticSearchIndexEvent event = ElasticSearchIndexEvent.readFrom(in);
+		read++;
+		if (read == written) {
+			clear();
+		}
+		return event;
+	}
+
+	/**
+	 * Gets the number of events which have not been read yet
+	 *
+	 * @return the number of unread events
+	 */
+	int size() {
+		return written - read;
+	}
+
+	/**
+	 * Discards all events and deletes the file
+	 */
+	void clear() {
+		try {
+			if (out != null) {
+				out.close();
+			}
+			if (in != null) {
+				in.close();
+			}
+		} catch (IOException e) {
+			Logger.warn("Could not close Elastic Search spill file %s: %s", file, e.getMessage());
+		}
+		out = null;
+		fileOut = null;
+		in = null;
+		written = 0;
+		read = 0;
+		unsynced = false;
+		file.delete();
+	}
+
+}
@@ -0,0 +1,326 @@
+package play.modules.elasticsearch.rabbitmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import play.Logger;
+import play.Play;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.bulk.BulkIndexer;
+import play.modules.elasticsearch.bulk.DocumentLoader;
+import play.modules.elasticsearch.bulk.LoggingBulkIndexListener;
+import play.modules.elasticsearch.util.NamedThreadFactory;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.QueueingConsumer;
+
+/**
+ * Consumes the events from the queue and indexes them in bulk.
+ *
+ * <p>
+ * Each consumer has its own connection and thread. The broker sends it at
+ * most prefetch unacknowledged messages, which it collects into a batch until
+ * the batch is full or its oldest message has waited for the batch interval.
+ * The batch is indexed with one bulk request and all its messages are
+ * acknowledged at once. If the database or Elastic Search could not be
+ * reached, the batch is returned to the queue after the reconnect delay.
+ * Documents sent by reference are loaded from the database first.
+ *
+ * <pre>
+ * elasticsearch.rabbitmq.consumers = 1
+ * elasticsearch.rabbitmq.prefetch = 1000
+ * elasticsearch.rabbitmq.batchSize = 500
+ * elasticsearch.rabbitmq.batchInterval = 1000
+ * </pre>
+ */
+public class RabbitMQConsumer {
+
+	/** Maximum time in milliseconds a consumer waits before checking for a stop */
+	private static final long POLL_INTERVAL = 100;
+
+	/** Time to wait for the consumers to index their batches on stop */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	/** The queue */
+	private final String queue;
+
+	/** Number of consumers */
+	private final int consumerCount;
+
+	/** Maximum number of unacknowledged messages per consumer */
+	private final int prefetch;
+
+	/** Maximum number of messages per batch */
+	private final int batchSize;
+
+	/** Maximum time in milliseconds a message waits for its batch */
+	private final long batchInterval;
+
+	/** Time to wait before reconnecting or retrying a batch */
+	private final long reconnectDelay;
+
+	/** Whether the consumers keep running */
+	private volatile boolean running = false;
+
+	/** The executor running the consumers, null if not started */
+	private ExecutorService executor = null;
+
+	/**
+	 * Creates a consumer pool using the configuration
+	 */
+	public RabbitMQConsumer() {
+		this(RabbitMQIndexEventHandler.getQueue(), getConsumerCount(), getPrefetch(), getBatchSize(),
+				getBatchInterval(), RabbitMQIndexEventHandler.getReconnectDelay());
+	}
+
+	/**
+	 * Creates a consumer pool
+	 *
+	 * @param queue
+	 *            the queue
+	 * @param consumerCount
+	 *            number of consumers
+	 * @param prefetch
+	 *            maximum number of unacknowledged messages per consumer
+	 * @param batchSize
+	 *            maximum number of messages per batch, at most prefetch
+	 * @param batchInterval
+	 *            maximum time in milliseconds a message waits for its batch
+	 * @param reconnectDelay
+	 *            time in milliseconds to wait before reconnecting or retrying
+	 *            a batch
+	 */
+	public RabbitMQConsumer(String queue, int consumerCount, int prefetch, int batchSize, long batchInterval,
+			long reconnectDelay) {
+		if (consumerCount < 1 || prefetch < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("Consumer count, prefetch and batch size must be positive");
+		}
+		this.queue = queue;
+		this.consumerCount = consumerCount;
+		this.prefetch = prefetch;
+		// A larger batch would never fill up
+		this.batchSize = Math.min(batchSize, prefetch);
+		this.batchInterval = batchInterval;
+		this.reconnectDelay = reconnectDelay;
+	}
+
+	private static int getConsumerCount() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.rabbitmq.consumers", "1"));
+	}
+
+	private static int getPrefetch() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.rabbitmq.prefetch", "1000"));
+	}
+
+	private static int getBatchSize() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.rabbitmq.batchSize", "500"));
+	}
+
+	private static long getBatchInterval() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.rabbitmq.batchInterval", "1000"));
+	}
+
+	/**
+	 * Opens a new connection
+	 *
+	 * @return the connection
+	 * @throws IOException
+	 */
+	protected Connection newConnection() throws IOException {
+		return RabbitMQIndexEventHandler.newConnection();
+	}
+
+	/**
+	 * Declares the exchange, queue and binding on a new channel
+	 *
+	 * @param channel
+	 *            the channel
+	 * @throws IOException
+	 */
+	protected void declare(Channel channel) throws IOException {
+		RabbitMQIndexEventHandler.declareQueue(channel);
+	}
+
+	/**
+	 * Indexes a batch of events, loading the documents sent by reference
+	 *
+	 * @param events
+	 *            the events
+	 * @return false if the database or Elastic Search could not be reached
+	 */
+	protected boolean index(List<ElasticSearchIndexEvent> events) {
+		List<ElasticSearchIndexEvent> loaded = events;
+		for (ElasticSearchIndexEvent event : events) {
+			if (event.isReference()) {
+				loaded = new DocumentLoader(events).call();
+				break;
+			}
+		}
+		if (loaded == null) {
+			return false;
+		}
+
+		// One bulk request for the whole batch
+		BulkIndexer bulkIndexer = new BulkIndexer(Integer.MAX_VALUE, Long.MAX_VALUE, 0,
+				new LoggingBulkIndexListener());
+		for (ElasticSearchIndexEvent event : loaded) {
+			bulkIndexer.add(event);
+		}
+
+		// Failed items were logged, they would fail again if requeued
+		return bulkIndexer.flush() != BulkIndexer.Result.FAILURE;
+	}
+
+	/**
+	 * Starts the consumers
+	 */
+	public synchronized void start() {
+		Logger.info("Starting %s RabbitMQ consumers for Elastic Search", consumerCount);
+		running = true;
+		executor = Executors.newFixedThreadPool(consumerCount, new NamedThreadFactory("elasticsearch-rabbitmq"));
+		for (int i = 0; i < consumerCount; i++) {
+			executor.execute(new Worker());
+		}
+	}
+
+	/**
+	 * Stops the consumers once they have indexed their current batch.
+	 * Messages not taken into a batch yet are returned to the queue.
+	 */
+	public synchronized void stop() {
+		if (executor == null) {
+			return;
+		}
+		running = false;
+		executor.shutdown();
+
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				Logger.warn("RabbitMQ consumers did not stop within %s seconds", SHUTDOWN_TIMEOUT_SECONDS);
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+		executor = null;
+	}
+
+	/**
+	 * A consumer, reconnecting until stopped
+	 */
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			while (running) {
+				Connection connection = null;
+				try {
+					connection = newConnection();
+					consume(connection.createChannel());
+
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+
+				} catch (Exception e) {
+					// IOException or ShutdownSignalException, unacknowledged messages are redelivered
+					if (running) {
+						Logger.warn("RabbitMQ consumer failed, reconnecting in %s ms: %s", reconnectDelay,
+								e.getMessage());
+					}
+
+				} finally {
+					close(connection);
+				}
+
+				if (running) {
+					try {
+						Thread.sleep(reconnectDelay);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Consumes batches until stopped
+		 */
+		private void consume(Channel channel) throws IOException, InterruptedException {
+			declare(channel);
+			channel.basicQos(prefetch);
+			QueueingConsumer consumer = new QueueingConsumer(channel);
+			channel.basicConsume(queue, false, consumer);
+
+			List<ElasticSearchIndexEvent> batch = new ArrayList<ElasticSearchIndexEvent>(batchSize);
+			long lastDeliveryTag = 0;
+			long batchStart = 0;
+			while (true) {
+				// Wakes up regularly to notice a stop
+				long wait = POLL_INTERVAL;
+				if (!batch.isEmpty()) {
+					wait = Math.max(1, Math.min(wait, batchStart + batchInterval - System.currentTimeMillis()));
+				}
+				QueueingConsumer.Delivery delivery = running ? consumer.nextDelivery(wait) : null;
+
+				if (delivery != null) {
+					long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+					ElasticSearchIndexEvent event;
+					try {
+						event = RabbitMQMessage.decode(delivery.getBody());
+					} catch (IOException e) {
+						Logger.error("Discarding unreadable RabbitMQ message: %s", e.getMessage());
+						channel.basicReject(deliveryTag, false);
+						continue;
+					}
+
+					if (batch.isEmpty()) {
+						batchStart = System.currentTimeMillis();
+					}
+					batch.add(event);
+					lastDeliveryTag = deliveryTag;
+				}
+
+				if (batch.isEmpty()) {
+					if (!running) {
+						return;
+					}
+					continue;
+				}
+				if (running && batch.size() < batchSize
+						&& System.currentTimeMillis() - batchStart < batchInterval) {
+					continue;
+				}
+
+				// The batch is full, due or the consumer is stopping
+				if (index(batch)) {
+					channel.basicAck(lastDeliveryTag, true);
+				} else {
+					Logger.warn("Could not index %s events, returning them to the queue in %s ms", batch.size(),
+							reconnectDelay);
+					Thread.sleep(reconnectDelay);
+					channel.basicNack(lastDeliveryTag, true, true);
+				}
+				batch = new ArrayList<ElasticSearchIndexEvent>(batchSize);
+			}
+		}
+
+		private void close(Connection connection) {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Exception e) {
+					Logger.debug("Could not close the RabbitMQ connection: %s", e.getMessage());
+				}
+			}
+		}
+	}
+
+}
@@ -1,41 +1,106 @@
 package play.modules.elasticsearch.rabbitmq;
 
+import java.io.IOException;
+
 import play.Logger;
 import play.Play;
 import play.modules.elasticsearch.ElasticSearchIndexEvent;
-import play.modules.elasticsearch.IndexEventHandler;
+import play.modules.elasticsearch.LifecycleIndexEventHandler;
+
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
 
 /**
  * Handler which pushes events into a rabbitmq queue
  */
-public class RabbitMQIndexEventHandler implements IndexEventHandler {
+public class RabbitMQIndexEventHandler implements LifecycleIndexEventHandler {
+	
+	/** Publishes the events */
+	private RabbitMQPublisher publisher = null;
+	
+	/** Indexes the events */
+	private RabbitMQConsumer consumer = null;
 	
-	/** Flag that indicates if the consumer has been started */
-	private static boolean consumerStarted = false;
+	/** Whether rendered documents are sent, or only their references */
+	private boolean sendDocuments = true;
+
+	@Override
+	public synchronized void start() {
+		publisher = new RabbitMQPublisher(getQueue(), getQueue(), getChannelCount(), getMaxUnconfirmed(),
+				getReconnectDelay());
+		sendDocuments = isSendDocuments();
+		consumer = new RabbitMQConsumer();
+		consumer.start();
+	}
 
 	@Override
 	public void handle(ElasticSearchIndexEvent event) {
-		if (consumerStarted == false) {
-			startConsumer();
-			consumerStarted = true;
+		try {
+			// Rendered in the calling thread, while the model is attached
+			publisher.publish(RabbitMQMessage.encode(event, sendDocuments));
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.error("Interrupted while publishing %s to RabbitMQ, the event is lost", event);
+
+		} catch (IOException e) {
+			Logger.error("Could not publish %s to RabbitMQ, the event is lost: %s", event, e.getMessage());
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			if (!publisher.awaitConfirms(getConfirmTimeout())) {
+				Logger.warn("RabbitMQ did not confirm %s messages within %s ms", publisher.getUnconfirmedCount(),
+						getConfirmTimeout());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		
-		// Exchange
-		akka.amqp.ExchangeType directExchange = akka.amqp.Direct.getInstance();
-		akka.amqp.AMQP.ExchangeParameters params = new akka.amqp.AMQP.ExchangeParameters(getQueue(), directExchange);
-		
-		// Producer
-		akka.amqp.AMQP.ProducerParameters producerParams = new akka.amqp.AMQP.ProducerParameters(params);
-		
-		// Connection
-		com.rabbitmq.client.Address address = new com.rabbitmq.client.Address(getHost(), getPort());
-		com.rabbitmq.client.Address[] addresses = {address};
-		akka.amqp.AMQP.ConnectionParameters connectionParameters = new akka.amqp.AMQP.ConnectionParameters(addresses, getUsername(), getPassword(), getVirtualHost());
-		akka.actor.ActorRef connection = akka.amqp.AMQP.newConnection(connectionParameters);
-		
-		// Send Event
-		akka.actor.ActorRef producer = akka.amqp.AMQP.newProducer(connection, producerParams);
-		producer.sendOneWay(event);
+	}
+
+	@Override
+	public synchronized void stop() {
+		flush();
+		publisher.close();
+		consumer.stop();
+	}
+	
+	/**
+	 * Opens a connection to the configured broker
+	 * 
+	 * @return the connection
+	 * @throws IOException
+	 */
+	static Connection newConnection() throws IOException {
+		ConnectionFactory factory = new ConnectionFactory();
+		if (getUsername() != null) {
+			factory.setUsername(getUsername());
+		}
+		if (getPassword() != null) {
+			factory.setPassword(getPassword());
+		}
+		if (getVirtualHost() != null) {
+			factory.setVirtualHost(getVirtualHost());
+		}
+		return factory.newConnection(new Address[] { new Address(getHost(), getPort()) });
+	}
+	
+	/**
+	 * Declares the durable exchange and queue, both named after the
+	 * configured queue, and binds the queue with its name as routing key
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @throws IOException
+	 */
+	static void declareQueue(Channel channel) throws IOException {
+		channel.exchangeDeclare(getQueue(), "direct", true);
+		channel.queueDeclare(getQueue(), true, false, false, null);
+		channel.queueBind(getQueue(), getQueue(), getQueue());
 	}
 	
 	/**
@@ -43,7 +108,7 @@ public class RabbitMQIndexEventHandler implements IndexEventHandler {
 	 * 
 	 * @return the queue
 	 */
-	private static String getQueue() {
+	static String getQueue() {
 		String s = Play.configuration.getProperty("elasticsearch.rabbitmq.queue");
 		if (s == null) {
 			return "elasticSearchQueue";
@@ -66,7 +131,8 @@ public class RabbitMQIndexEventHandler implements IndexEventHandler {
 	 * @return the port
 	 */
 	private static Integer getPort() {
-		return Integer.valueOf(Play.configuration.getProperty("elasticsearch.rabbitmq.port"));
+		return Integer.valueOf(Play.configuration.getProperty("elasticsearch.rabbitmq.port",
+				String.valueOf(ConnectionFactory.DEFAULT_AMQP_PORT)));
 	}
 	
 	/**
@@ -96,24 +162,51 @@ public class RabbitMQIndexEventHandler implements IndexEventHandler {
 		return Play.configuration.getProperty("elasticsearch.rabbitmq.virtualHost");
 	}
 	
-	private static void startConsumer() {
-		// TODO Finish RabbitMQ Integration
-		Logger.info("Triggering RabbitMQConsumer for Elastic Search...");
-		
-		// Exchange
-		akka.amqp.ExchangeType directExchange = akka.amqp.Direct.getInstance();
-		akka.amqp.AMQP.ExchangeParameters params = new akka.amqp.AMQP.ExchangeParameters(getQueue(), directExchange);
-		
-		// Consumer
-		com.rabbitmq.client.Address address = new com.rabbitmq.client.Address(getHost(), getPort());
-		com.rabbitmq.client.Address[] addresses = {address};
-		akka.amqp.AMQP.ConnectionParameters connectionParameters = new akka.amqp.AMQP.ConnectionParameters(addresses, getUsername(), getPassword(), getVirtualHost());
-		@SuppressWarnings("unused")
-		akka.actor.ActorRef connection = akka.amqp.AMQP.newConnection(connectionParameters);
-		
-		akka.actor.ActorRef ref = akka.actor.Actors.actorOf(RabbitMQConsumerActor.class);
-		akka.amqp.AMQP.ConsumerParameters consumerParams = new akka.amqp.AMQP.ConsumerParameters(getQueue(), ref, params);
-		akka.amqp.AMQP.newConsumer(ref, consumerParams);
+	/**
+	 * Gets the number of publishing channels.
+	 * 
+	 * @return the channel count
+	 */
+	private static int getChannelCount() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.rabbitmq.channels", "2"));
+	}
+	
+	/**
+	 * Gets the maximum number of unconfirmed messages per channel.
+	 * 
+	 * @return the maximum number of unconfirmed messages
+	 */
+	private static int getMaxUnconfirmed() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.rabbitmq.maxUnconfirmed", "10000"));
+	}
+	
+	/**
+	 * Gets the minimum time between two connection attempts in milliseconds.
+	 * 
+	 * @return the reconnect delay
+	 */
+	static long getReconnectDelay() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.rabbitmq.reconnectDelay", "5000"));
+	}
+	
+	/**
+	 * Checks whether rendered documents are sent. If not, the consumer loads
+	 * the models by id.
+	 * 
+	 * @return true, unless elasticsearch.rabbitmq.sendDocuments is false
+	 */
+	private static boolean isSendDocuments() {
+		return Boolean.parseBoolean(Play.configuration.getProperty("elasticsearch.rabbitmq.sendDocuments", "true"));
+	}
+	
+	/**
+	 * Gets the time to wait for the broker to confirm messages on flush and
+	 * stop in milliseconds.
+	 * 
+	 * @return the confirm timeout
+	 */
+	private static long getConfirmTimeout() {
+		return Long.parseLong(Play.configuration.getProperty("elasticsearch.rabbitmq.confirmTimeout", "30000"));
 	}
 
 }
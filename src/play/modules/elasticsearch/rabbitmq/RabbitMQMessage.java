@@ -0,0 +1,65 @@
+package play.modules.elasticsearch.rabbitmq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+
+/**
+ * The body of the RabbitMQ messages: a format version followed by the
+ * detached event, i.e. the operation, index name, type name and document id,
+ * and the rendered document unless only the reference is sent. No model
+ * object is serialized.
+ */
+public abstract class RabbitMQMessage {
+
+	/** Version of the message format */
+	static final byte FORMAT_VERSION = 1;
+
+	private RabbitMQMessage() {
+		// private
+	}
+
+	/**
+	 * Encodes an event. Rendering the document, if included, needs the
+	 * persistence context of the model.
+	 *
+	 * @param event
+	 *            the event
+	 * @param includeDocument
+	 *            false to send only the reference of the document, which the
+	 *            consumer loads from the database
+	 * @return the message body
+	 * @throws IOException
+	 */
+	public static byte[] encode(ElasticSearchIndexEvent event, boolean includeDocument) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(FORMAT_VERSION);
+		(includeDocument ? event.detach() : event.detachReference()).writeTo(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes an event
+	 *
+	 * @param body
+	 *            the message body
+	 * @return the detached event
+	 * @throws IOException
+	 *             if the message cannot be read
+	 */
+	public static ElasticSearchIndexEvent decode(byte[] body) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte version = in.readByte();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unknown message format " + version);
+		}
+		return ElasticSearchIndexEvent.readFrom(in);
+	}
+
+}
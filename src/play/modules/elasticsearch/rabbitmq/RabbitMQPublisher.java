@@ -0,0 +1,396 @@
+package play.modules.elasticsearch.rabbitmq;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import play.Logger;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.MessageProperties;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Publishes messages to RabbitMQ over one long-lived connection and a fixed
+ * number of channels, which are used in turn.
+ *
+ * <p>
+ * The channels are in confirm mode. Each channel keeps the messages which the
+ * broker has not confirmed yet and publishes them again when it has to be
+ * reopened, e.g. after the connection was lost. Messages which cannot be
+ * published because the broker is unavailable are kept as well and published
+ * once the connection is back; the connection is retried at most once per
+ * reconnect delay. When a channel keeps too many messages, publishing waits
+ * until the broker confirms some of them, or fails if the broker is
+ * unavailable.
+ */
+public class RabbitMQPublisher {
+
+	/** The exchange */
+	private final String exchange;
+
+	/** The routing key */
+	private final String routingKey;
+
+	/** The channels */
+	private final PublisherChannel[] channels;
+
+	/** Maximum number of messages kept per channel */
+	private final int maxUnconfirmed;
+
+	/** Minimum time between two connection attempts */
+	private final long reconnectDelay;
+
+	/** Counter for using the channels in turn */
+	private final AtomicInteger nextChannel = new AtomicInteger();
+
+	/** The connection, null until connected */
+	private Connection connection = null;
+
+	/** Time before which no new connection is attempted */
+	private long nextConnectAttempt = 0;
+
+	/** Number of messages the broker could not take */
+	private final AtomicInteger nackedCount = new AtomicInteger();
+
+	/**
+	 * Creates a publisher. Connects on the first message.
+	 *
+	 * @param exchange
+	 *            the exchange
+	 * @param routingKey
+	 *            the routing key
+	 * @param channelCount
+	 *            number of channels
+	 * @param maxUnconfirmed
+	 *            maximum number of messages kept per channel
+	 * @param reconnectDelay
+	 *            minimum time between two connection attempts in milliseconds
+	 */
+	public RabbitMQPublisher(String exchange, String routingKey, int channelCount, int maxUnconfirmed,
+			long reconnectDelay) {
+		if (channelCount < 1 || maxUnconfirmed < 1) {
+			throw new IllegalArgumentException("Channel count and unconfirmed messages must be positive");
+		}
+		this.exchange = exchange;
+		this.routingKey = routingKey;
+		this.maxUnconfirmed = maxUnconfirmed;
+		this.reconnectDelay = reconnectDelay;
+		this.channels = new PublisherChannel[channelCount];
+		for (int i = 0; i < channelCount; i++) {
+			channels[i] = new PublisherChannel();
+		}
+	}
+
+	/**
+	 * Opens a new connection
+	 *
+	 * @return the connection
+	 * @throws IOException
+	 */
+	protected Connection newConnection() throws IOException {
+		return RabbitMQIndexEventHandler.newConnection();
+	}
+
+	/**
+	 * Declares the exchange, queue and binding on a new channel
+	 *
+	 * @param channel
+	 *            the channel
+	 * @throws IOException
+	 */
+	protected void declare(Channel channel) throws IOException {
+		RabbitMQIndexEventHandler.declareQueue(channel);
+	}
+
+	/**
+	 * Gets the open connection, connecting if needed
+	 */
+	private synchronized Connection getConnection() throws IOException {
+		if (connection != null && connection.isOpen()) {
+			return connection;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now < nextConnectAttempt) {
+			throw new IOException("RabbitMQ is unavailable, reconnecting in " + (nextConnectAttempt - now) + " ms");
+		}
+		try {
+			connection = newConnection();
+			Logger.info("Connected to RabbitMQ");
+			return connection;
+
+		} catch (IOException e) {
+			nextConnectAttempt = now + reconnectDelay;
+			throw e;
+		}
+	}
+
+	/**
+	 * Publishes a message. Does not wait for the broker to confirm it.
+	 *
+	 * @param body
+	 *            the message body
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the broker to confirm
+	 *             earlier messages
+	 * @throws IOException
+	 *             if too many messages are kept while the broker is
+	 *             unavailable
+	 */
+	public void publish(byte[] body) throws InterruptedException, IOException {
+		int index = (nextChannel.getAndIncrement() & Integer.MAX_VALUE) % channels.length;
+		channels[index].publish(body);
+	}
+
+	/**
+	 * Waits until the broker has confirmed all messages published so far,
+	 * publishing kept messages again if the connection was lost
+	 *
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return true if all messages were confirmed in time
+	 * @throws InterruptedException
+	 */
+	public boolean awaitConfirms(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		for (PublisherChannel channel : channels) {
+			if (!channel.awaitConfirms(deadline)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of messages which have not been confirmed yet
+	 *
+	 * @return the number of unconfirmed messages
+	 */
+	public int getUnconfirmedCount() {
+		int count = 0;
+		for (PublisherChannel channel : channels) {
+			count += channel.getUnconfirmedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of messages the broker could not take
+	 *
+	 * @return the number of negatively confirmed messages
+	 */
+	public int getNackedCount() {
+		return nackedCount.get();
+	}
+
+	/**
+	 * Closes the channels and the connection. Unconfirmed messages are lost.
+	 */
+	public void close() {
+		for (PublisherChannel channel : channels) {
+			channel.close();
+		}
+		synchronized (this) {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Exception e) {
+					Logger.debug("Could not close the RabbitMQ connection: %s", e.getMessage());
+				}
+				connection = null;
+			}
+		}
+	}
+
+	/**
+	 * A channel with the messages it has not confirmed yet. Publishing is
+	 * guarded by the publish lock, the messages by the channel itself, which
+	 * is also the lock the broker confirms take.
+	 */
+	private class PublisherChannel implements ConfirmListener {
+
+		/** Guards the channel while publishing */
+		private final Object publishLock = new Object();
+
+		/** The channel, null if it has to be opened */
+		private Channel channel = null;
+
+		/** Published messages by sequence number */
+		private final SortedMap<Long, byte[]> unconfirmed = new TreeMap<Long, byte[]>();
+
+		/** Messages waiting for the channel to be opened */
+		private final List<byte[]> pending = new LinkedList<byte[]>();
+
+		void publish(byte[] body) throws InterruptedException, IOException {
+			synchronized (publishLock) {
+				if (isFull() && !isOpen()) {
+					// Try to reopen the channel, which publishes the kept messages
+					publishPending();
+				}
+
+				synchronized (this) {
+					while (isFull()) {
+						if (!isOpen()) {
+							throw new IOException("RabbitMQ is unavailable and " + getUnconfirmedCount()
+									+ " messages are waiting");
+						}
+						wait(reconnectDelay);
+					}
+					pending.add(body);
+				}
+				publishPending();
+			}
+		}
+
+		boolean awaitConfirms(long deadline) throws InterruptedException {
+			while (true) {
+				synchronized (publishLock) {
+					// Reopens the channel if needed
+					publishPending();
+				}
+
+				synchronized (this) {
+					if (unconfirmed.isEmpty() && pending.isEmpty()) {
+						return true;
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return false;
+					}
+					wait(Math.min(remaining, reconnectDelay));
+				}
+			}
+		}
+
+		synchronized int getUnconfirmedCount() {
+			return unconfirmed.size() + pending.size();
+		}
+
+		private synchronized boolean isFull() {
+			return unconfirmed.size() + pending.size() >= maxUnconfirmed;
+		}
+
+		/**
+		 * Publishes the pending messages, opening the channel if needed. Must
+		 * hold the publish lock.
+		 */
+		private void publishPending() {
+			try {
+				Channel ch = open();
+				while (true) {
+					byte[] body;
+					long seqNo;
+					synchronized (this) {
+						if (pending.isEmpty()) {
+							return;
+						}
+						body = pending.remove(0);
+						seqNo = ch.getNextPublishSeqNo();
+						unconfirmed.put(seqNo, body);
+					}
+					ch.basicPublish(exchange, routingKey, MessageProperties.PERSISTENT_BASIC, body);
+				}
+
+			} catch (IOException e) {
+				Logger.warn("Could not publish to RabbitMQ, keeping %s messages: %s", getUnconfirmedCount(),
+						e.getMessage());
+				discard();
+
+			} catch (ShutdownSignalException e) {
+				Logger.warn("RabbitMQ channel closed, keeping %s messages: %s", getUnconfirmedCount(), e.getMessage());
+				discard();
+			}
+		}
+
+		/**
+		 * Opens the channel if needed. Messages not confirmed by the previous
+		 * channel are published again. Must hold the publish lock.
+		 */
+		private Channel open() throws IOException {
+			if (isOpen()) {
+				return channel;
+			}
+
+			Channel ch = getConnection().createChannel();
+			declare(ch);
+			ch.confirmSelect();
+			ch.setConfirmListener(this);
+			synchronized (this) {
+				if (!unconfirmed.isEmpty()) {
+					Logger.info("Publishing %s unconfirmed messages to RabbitMQ again", unconfirmed.size());
+				}
+				pending.addAll(0, unconfirmed.values());
+				unconfirmed.clear();
+			}
+			channel = ch;
+			return ch;
+		}
+
+		private boolean isOpen() {
+			return channel != null && channel.isOpen();
+		}
+
+		/**
+		 * Forgets the channel after a failure, it is reopened on the next
+		 * message
+		 */
+		private void discard() {
+			if (channel != null) {
+				try {
+					channel.abort();
+				} catch (Exception e) {
+					// Already closed
+				}
+				channel = null;
+			}
+		}
+
+		void close() {
+			synchronized (publishLock) {
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (Exception e) {
+						Logger.debug("Could not close a RabbitMQ channel: %s", e.getMessage());
+					}
+					channel = null;
+				}
+			}
+		}
+
+		@Override
+		public synchronized void handleAck(long deliveryTag, boolean multiple) {
+			confirm(deliveryTag, multiple);
+		}
+
+		@Override
+		public synchronized void handleNack(long deliveryTag, boolean multiple) {
+			int count = confirm(deliveryTag, multiple);
+			nackedCount.addAndGet(count);
+			Logger.error("RabbitMQ could not take %s messages", count);
+		}
+
+		/**
+		 * Removes confirmed messages, must hold the channel lock
+		 */
+		private int confirm(long deliveryTag, boolean multiple) {
+			int count;
+			if (multiple) {
+				SortedMap<Long, byte[]> confirmed = unconfirmed.headMap(deliveryTag + 1);
+				count = confirmed.size();
+				confirmed.clear();
+			} else {
+				count = unconfirmed.remove(deliveryTag) != null ? 1 : 0;
+			}
+			notifyAll();
+			return count;
+		}
+	}
+
+}
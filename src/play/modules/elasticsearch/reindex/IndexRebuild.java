@@ -0,0 +1,417 @@
+package play.modules.elasticsearch.reindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+import play.Logger;
+import play.db.Model;
+import play.modules.elasticsearch.ClientBootstrap;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+import play.modules.elasticsearch.mapping.MappingUtil;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.util.ExceptionUtil;
+
+/**
+ * Rebuilds an index without downtime.
+ *
+ * <p>
+ * The index name of the models is an alias for a versioned index, e.g. posts
+ * for posts_v2. Indices are created as their first version behind the alias,
+ * see {@link #getVersionName(String, int)}. A rebuild creates the next version with the current
+ * mappings, fills it with refresh disabled and no replicas, restores the
+ * settings of the previous version and then swaps the alias in one step.
+ * Searches keep using the previous version until the swap.
+ *
+ * <p>
+ * The version being built is marked in the cluster by a second alias, e.g.
+ * posts_rebuild for posts_v2, so a rebuild started by any process is seen by
+ * all applications writing to the index, see {@link #getRebuildIndex(String)}.
+ * Changes made while the index is rebuilt are written to both versions. In the
+ * new version all writes carry an external version taken from the clock, see
+ * {@link #nextVersion()}, so a chunk of the rebuild never overwrites a newer
+ * change and never recreates a document deleted after the chunk was read.
+ *
+ * <p>
+ * All models sharing the index are rebuilt together. Previous versions are
+ * deleted after the swap. An index created before indices were versioned is
+ * not an alias and cannot be rebuilt, see {@link #checkAlias(MetaData, String)}.
+ */
+public class IndexRebuild {
+
+	/** Suffix of the alias marking the version being built */
+	public static final String MARKER_SUFFIX = "_rebuild";
+
+	/** Time in milliseconds after which the markers are read again from the cluster */
+	public static final long MARKER_CHECK_INTERVAL = 5000;
+
+	/** Refresh interval used when there is no previous version */
+	private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+
+	/** Number of replicas used when there is no previous version */
+	private static final int DEFAULT_REPLICAS = 1;
+
+	/** The version being built for each alias being rebuilt, as last read from the cluster */
+	private static volatile Map<String, String> rebuildIndices = Collections.emptyMap();
+
+	/** Time at which the markers were last read */
+	private static volatile long markersCheckedAt;
+
+	/** Held while the markers are read */
+	private static final Object markersLock = new Object();
+
+	/** The last external version handed out */
+	private static final AtomicLong lastVersion = new AtomicLong();
+
+	/** Aliases being rebuilt by this process, including those still being prepared */
+	private static final Set<String> runningRebuilds = Collections.synchronizedSet(new HashSet<String>());
+
+	/** The alias */
+	private final String alias;
+
+	/** The models sharing the index */
+	private final List<Class<? extends Model>> models;
+
+	/**
+	 * Creates a rebuild
+	 *
+	 * @param alias
+	 *            the index name of the models
+	 * @param models
+	 *            all models sharing the index
+	 */
+	public IndexRebuild(String alias, List<Class<? extends Model>> models) {
+		this.alias = alias;
+		this.models = models;
+	}
+
+	/**
+	 * Gets the index which is being built for an index name, if any. Changes
+	 * written to the index name must be written to this index as well, with an
+	 * external version from {@link #nextVersion()}.
+	 *
+	 * <p>
+	 * The markers are read from the cluster at most every
+	 * {@link #MARKER_CHECK_INTERVAL} milliseconds, and only once the client is
+	 * ready.
+	 *
+	 * @param indexName
+	 *            the index name
+	 * @return the index being built, or null if the index is not rebuilt
+	 */
+	public static String getRebuildIndex(String indexName) {
+		checkMarkers();
+		return rebuildIndices.get(indexName);
+	}
+
+	private static void checkMarkers() {
+		if (System.currentTimeMillis() - markersCheckedAt < MARKER_CHECK_INTERVAL) {
+			return;
+		}
+		synchronized (markersLock) {
+			if (System.currentTimeMillis() - markersCheckedAt < MARKER_CHECK_INTERVAL) {
+				return;
+			}
+			try {
+				if (ElasticSearchPlugin.getClientState() != ClientBootstrap.State.READY) {
+					return;
+				}
+				update(readMetaData(ElasticSearchPlugin.client()));
+			} catch (Throwable t) {
+				// Keep the last known markers and try again later
+				markersCheckedAt = System.currentTimeMillis();
+				Logger.warn("Elastic Search - could not read the rebuild markers: %s", t.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Replaces the known markers by the markers in the cluster metadata
+	 *
+	 * @param metaData
+	 *            the cluster metadata
+	 */
+	public static void update(MetaData metaData) {
+		synchronized (markersLock) {
+			rebuildIndices = getRebuildIndices(metaData);
+			markersCheckedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Gets the version being built for each alias from the marker aliases
+	 *
+	 * @param metaData
+	 *            the cluster metadata
+	 * @return the index being built by alias
+	 */
+	public static Map<String, String> getRebuildIndices(MetaData metaData) {
+		Map<String, String> indices = new HashMap<String, String>();
+		for (Map.Entry<String, ImmutableMap<String, AliasMetaData>> marker : metaData.aliases().entrySet()) {
+			String name = marker.getKey();
+			if (name.endsWith(MARKER_SUFFIX) && marker.getValue().size() == 1) {
+				indices.put(name.substring(0, name.length() - MARKER_SUFFIX.length()), marker.getValue().keySet()
+						.iterator().next());
+			}
+		}
+		return Collections.unmodifiableMap(indices);
+	}
+
+	/**
+	 * Gets an external version for a write to a version being built. Versions
+	 * are the current time in microseconds, strictly increasing within this
+	 * process.
+	 *
+	 * @return the version
+	 */
+	public static long nextVersion() {
+		while (true) {
+			long last = lastVersion.get();
+			long version = Math.max(System.currentTimeMillis() * 1000, last + 1);
+			if (lastVersion.compareAndSet(last, version)) {
+				return version;
+			}
+		}
+	}
+
+	/**
+	 * Gets the name of a version of an index
+	 *
+	 * @param alias
+	 *            the index name of the models
+	 * @param version
+	 *            the version number, starting at 1
+	 * @return the name of the version, e.g. posts_v2
+	 */
+	public static String getVersionName(String alias, int version) {
+		return alias + "_v" + version;
+	}
+
+	/**
+	 * Checks that an index name can be rebuilt. An index which is not an
+	 * alias cannot be replaced without downtime, as a change written between
+	 * deleting it and creating the alias would create a new index of the same
+	 * name.
+	 *
+	 * @param metaData
+	 *            the cluster metadata
+	 * @param alias
+	 *            the index name of the models
+	 * @throws ReindexException
+	 *             if the index name is an index instead of an alias
+	 */
+	public static void checkAlias(MetaData metaData, String alias) {
+		if (!metaData.aliases().containsKey(alias) && metaData.hasIndex(alias)) {
+			throw new ReindexException("Index " + alias + " was created before indices were versioned and "
+					+ "cannot be rebuilt. Delete it while the applications are stopped, start them to create "
+					+ getVersionName(alias, 1) + " behind the alias " + alias + ", then reindex");
+		}
+	}
+
+	/**
+	 * Gets the indices an alias currently points to
+	 *
+	 * @param metaData
+	 *            the cluster metadata
+	 * @param alias
+	 *            the alias
+	 * @return the previous versions, empty if there is no index yet
+	 */
+	public static List<String> getPreviousIndices(MetaData metaData, String alias) {
+		List<String> previousIndices = new ArrayList<String>();
+		if (metaData.aliases().containsKey(alias)) {
+			previousIndices.addAll(metaData.aliases().get(alias).keySet());
+			Collections.sort(previousIndices);
+		}
+		return previousIndices;
+	}
+
+	/**
+	 * Gets the next version number, one higher than any existing version
+	 *
+	 * @param metaData
+	 *            the cluster metadata
+	 * @param alias
+	 *            the alias
+	 * @return the next version number
+	 */
+	public static int getNextVersion(MetaData metaData, String alias) {
+		Pattern pattern = Pattern.compile(Pattern.quote(alias) + "_v(\\d+)");
+		int version = 0;
+		for (String index : metaData.indices().keySet()) {
+			Matcher matcher = pattern.matcher(index);
+			if (matcher.matches()) {
+				version = Math.max(version, Integer.parseInt(matcher.group(1)));
+			}
+		}
+		return version + 1;
+	}
+
+	/**
+	 * Runs the rebuild
+	 *
+	 * @return the name of the new version
+	 */
+	public String run() {
+		if (!runningRebuilds.add(alias)) {
+			throw new ReindexException("Index " + alias + " is already being rebuilt");
+		}
+
+		try {
+			Client client = ElasticSearchPlugin.client();
+			MetaData metaData = readMetaData(client);
+			String pending = getRebuildIndices(metaData).get(alias);
+			if (pending != null) {
+				throw new ReindexException("Index " + alias + " is already being rebuilt into " + pending
+						+ ", if no rebuild is running, delete " + pending);
+			}
+			checkAlias(metaData, alias);
+
+			List<String> previousIndices = getPreviousIndices(metaData, alias);
+			IndexMetaData previous = previousIndices.isEmpty() ? null : metaData.index(previousIndices.get(0));
+
+			String newIndex = getVersionName(alias, getNextVersion(metaData, alias));
+			Logger.info("Elastic Search - rebuilding %s into %s", alias, newIndex);
+			createIndex(client, newIndex, previous);
+
+			try {
+				client.admin().indices().prepareAliases().addAlias(newIndex, alias + MARKER_SUFFIX).execute()
+						.actionGet();
+				update(readMetaData(client));
+
+				// Other processes read the marker within the check interval
+				Thread.sleep(2 * MARKER_CHECK_INTERVAL);
+
+				for (Class<? extends Model> clazz : models) {
+					reindexer(clazz).into(newIndex).run();
+				}
+				restoreSettings(client, newIndex, previous);
+				swapAlias(client, newIndex, previousIndices);
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				abort(client, newIndex);
+				throw new ReindexException("Interrupted while rebuilding " + alias, e);
+
+			} catch (RuntimeException e) {
+				abort(client, newIndex);
+				throw e;
+			}
+
+			if (!previousIndices.isEmpty()) {
+				Logger.info("Elastic Search - deleting previous versions %s", previousIndices);
+				client.admin().indices().prepareDelete(previousIndices.toArray(new String[previousIndices.size()]))
+						.execute().actionGet();
+			}
+
+			Logger.info("Elastic Search - %s now points to %s", alias, newIndex);
+			return newIndex;
+
+		} finally {
+			runningRebuilds.remove(alias);
+		}
+	}
+
+	private static <M extends Model> Reindexer<M> reindexer(Class<M> clazz) {
+		return new Reindexer<M>(clazz);
+	}
+
+	private static MetaData readMetaData(Client client) {
+		return client.admin().cluster().prepareState().setFilterNodes(true).setFilterRoutingTable(true)
+				.setFilterBlocks(true).execute().actionGet().state().metaData();
+	}
+
+	/**
+	 * Deletes the new version after a failed rebuild, unless the alias already
+	 * points to it
+	 */
+	private void abort(Client client, String newIndex) {
+		try {
+			MetaData metaData = readMetaData(client);
+			if (getPreviousIndices(metaData, alias).contains(newIndex)) {
+				Logger.error("Elastic Search - rebuilding %s failed after %s went live, keeping it", alias, newIndex);
+				return;
+			}
+
+			// Deleting the new version removes its marker as well
+			Logger.error("Elastic Search - rebuilding %s failed, deleting %s", alias, newIndex);
+			client.admin().indices().prepareDelete(newIndex).execute().actionGet();
+			update(readMetaData(client));
+
+		} catch (Throwable t) {
+			Logger.error(ExceptionUtil.getStackTrace(t));
+		}
+	}
+
+	/**
+	 * Creates the new version with all mappings, without refresh and replicas
+	 */
+	private void createIndex(Client client, String newIndex, IndexMetaData previous) {
+		ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder().put("index.refresh_interval", "-1")
+				.put("index.number_of_replicas", 0);
+		if (previous != null) {
+			settings.put("index.number_of_shards", previous.numberOfShards());
+		}
+
+		CreateIndexRequestBuilder request = client.admin().indices().prepareCreate(newIndex).setSettings(settings);
+		for (Class<? extends Model> clazz : models) {
+			ModelMapper<?> mapper = ElasticSearchPlugin.getMapper(clazz);
+			try {
+				request.addMapping(mapper.getTypeName(), MappingUtil.getMapping(mapper));
+			} catch (IOException e) {
+				throw new ReindexException("Could not build the mapping of " + clazz.getName(), e);
+			}
+		}
+		request.execute().actionGet();
+	}
+
+	/**
+	 * Restores the refresh interval and the replicas of the previous version
+	 * and waits until the new version can serve searches
+	 */
+	private void restoreSettings(Client client, String newIndex, IndexMetaData previous) {
+		String refreshInterval = DEFAULT_REFRESH_INTERVAL;
+		int replicas = DEFAULT_REPLICAS;
+		if (previous != null) {
+			refreshInterval = previous.settings().get("index.refresh_interval", DEFAULT_REFRESH_INTERVAL);
+			replicas = previous.numberOfReplicas();
+		}
+
+		client.admin().indices().prepareUpdateSettings(newIndex).setSettings(
+				ImmutableSettings.settingsBuilder().put("index.refresh_interval", refreshInterval)
+						.put("index.number_of_replicas", replicas)).execute().actionGet();
+		client.admin().indices().prepareRefresh(newIndex).execute().actionGet();
+		client.admin().cluster().prepareHealth(newIndex).setWaitForYellowStatus().execute().actionGet();
+	}
+
+	/**
+	 * Points the alias to the new version and removes the marker
+	 */
+	private void swapAlias(Client client, String newIndex, List<String> previousIndices) {
+		// Remove and add in one request, so searches always find one version
+		IndicesAliasesRequestBuilder request = client.admin().indices().prepareAliases();
+		for (String index : previousIndices) {
+			request.removeAlias(index, alias);
+		}
+		request.addAlias(newIndex, alias).removeAlias(newIndex, alias + MARKER_SUFFIX).execute().actionGet();
+		update(readMetaData(client));
+	}
+
+}
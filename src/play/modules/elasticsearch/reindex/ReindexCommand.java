@@ -0,0 +1,79 @@
+package play.modules.elasticsearch.reindex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import play.Logger;
+import play.Play;
+import play.db.Model;
+import play.modules.elasticsearch.ElasticSearchPlugin;
+
+/**
+ * Entry point of the elasticsearch:reindex command. Starts the application
+ * without its HTTP server and reindexes the given models, or all searchable
+ * models if none are given. With --rebuild, their indices are rebuilt without
+ * downtime, see {@link IndexRebuild}.
+ *
+ * <pre>
+ * play elasticsearch:reindex [models.Post ...] [--workers=4] [--chunkSize=1000] [--rebuild]
+ * </pre>
+ */
+public class ReindexCommand {
+
+	public static void main(String[] args) throws Exception {
+		Play.init(new File(System.getProperty("application.path")), System.getProperty("play.id", ""));
+		Thread.currentThread().setContextClassLoader(Play.classloader);
+		Play.start();
+
+		int status = 0;
+		try {
+			boolean rebuild = false;
+			List<Class<? extends Model>> models = new ArrayList<Class<? extends Model>>();
+			for (String arg : args) {
+				// Options override the configuration
+				if (arg.startsWith("--workers=")) {
+					Play.configuration.setProperty("elasticsearch.reindex.workers",
+							arg.substring("--workers=".length()));
+				} else if (arg.startsWith("--chunkSize=")) {
+					Play.configuration.setProperty("elasticsearch.reindex.chunkSize",
+							arg.substring("--chunkSize=".length()));
+				} else if (arg.equals("--rebuild")) {
+					rebuild = true;
+				} else if (!arg.startsWith("--")) {
+					models.add(Play.classloader.loadClass(arg).asSubclass(Model.class));
+				}
+			}
+			if (models.isEmpty()) {
+				models = ElasticSearchPlugin.getSearchableModels();
+			}
+
+			if (rebuild) {
+				// Models sharing an index are rebuilt together
+				Set<String> rebuiltIndices = new HashSet<String>();
+				for (Class<? extends Model> clazz : models) {
+					if (rebuiltIndices.add(ElasticSearchPlugin.getMapper(clazz).getIndexName())) {
+						String index = ElasticSearchPlugin.rebuildIndex(clazz);
+						Logger.info("Elastic Search - rebuilt %s for %s", index, clazz.getName());
+					}
+				}
+			} else {
+				for (Class<? extends Model> clazz : models) {
+					long count = ElasticSearchPlugin.reindex(clazz);
+					Logger.info("Elastic Search - reindexed %s %s", count, clazz.getName());
+				}
+			}
+
+		} catch (Throwable t) {
+			Logger.error(t, "Elastic Search - reindex failed");
+			status = 1;
+
+		} finally {
+			Play.stop();
+		}
+		System.exit(status);
+	}
+
+}
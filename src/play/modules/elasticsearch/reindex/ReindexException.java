@@ -0,0 +1,18 @@
+package play.modules.elasticsearch.reindex;
+
+/**
+ * Reindex exception
+ */
+public class ReindexException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ReindexException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public ReindexException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,347 @@
+package play.modules.elasticsearch.reindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.index.VersionType;
+
+import play.Logger;
+import play.Play;
+import play.db.Model;
+import play.db.jpa.JPA;
+import play.db.jpa.Transactional;
+import play.jobs.Job;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.bulk.BulkIndexer;
+import play.modules.elasticsearch.bulk.LoggingBulkIndexListener;
+import play.modules.elasticsearch.util.NamedThreadFactory;
+
+/**
+ * Rebuilds the index of a model from its table.
+ *
+ * <p>
+ * The ids are read in chunks, ordered by id. Each chunk is loaded, mapped and
+ * bulk indexed by one of several workers, in its own read-only transaction, so
+ * the persistence context never holds more than one chunk per worker. The
+ * number of workers and the chunk size can be set in conf/application.conf:
+ *
+ * <pre>
+ * elasticsearch.reindex.workers = 4
+ * elasticsearch.reindex.chunkSize = 1000
+ * </pre>
+ *
+ * The number of workers defaults to the number of available processors.
+ *
+ * @param <M>
+ *            the model type
+ */
+public class Reindexer<M extends Model> {
+
+	/** The model class */
+	private final Class<M> clazz;
+
+	/** Number of chunks indexed in parallel */
+	private final int workers;
+
+	/** Number of entities per chunk */
+	private final int chunkSize;
+
+	/** The index to write to, null for the index of the model */
+	private String targetIndex;
+
+	/** Number of documents which could not be indexed */
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * Creates a reindexer using the settings from the configuration
+	 *
+	 * @param clazz
+	 *            the model class
+	 */
+	public Reindexer(Class<M> clazz) {
+		this(clazz, getConfiguredWorkers(), getConfiguredChunkSize());
+	}
+
+	/**
+	 * Creates a reindexer
+	 *
+	 * @param clazz
+	 *            the model class
+	 * @param workers
+	 *            number of chunks indexed in parallel
+	 * @param chunkSize
+	 *            number of entities per chunk
+	 */
+	public Reindexer(Class<M> clazz, int workers, int chunkSize) {
+		if (workers < 1 || chunkSize < 1) {
+			throw new IllegalArgumentException("Workers and chunk size must be positive");
+		}
+		this.clazz = clazz;
+		this.workers = workers;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Writes to another index than the index of the model, e.g. a new version
+	 * of the index. Each chunk is written with an external version taken
+	 * before it is read, see {@link IndexRebuild#nextVersion()}, so changes
+	 * written to that index after the chunk was read are not overwritten.
+	 *
+	 * @param indexName
+	 *            the index name
+	 * @return self
+	 */
+	public Reindexer<M> into(String indexName) {
+		this.targetIndex = indexName;
+
+		return this;
+	}
+
+	private static int getConfiguredWorkers() {
+		String s = Play.configuration.getProperty("elasticsearch.reindex.workers");
+		if (s == null) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return Integer.parseInt(s);
+	}
+
+	private static int getConfiguredChunkSize() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.reindex.chunkSize", "1000"));
+	}
+
+	/**
+	 * Indexes all entities of the model. Must not be called with the
+	 * persistence context of the calling thread, the ids are read in a
+	 * separate thread.
+	 *
+	 * @return the number of indexed documents
+	 */
+	public long run() {
+		long start = System.currentTimeMillis();
+		Logger.info("Elastic Search - reindexing %s into %s with %s workers in chunks of %s", clazz.getName(),
+				targetIndex != null ? targetIndex : "its index", workers, chunkSize);
+
+		// One thread reads the ids, the others index the chunks
+		ExecutorService executor = Executors.newFixedThreadPool(workers + 1, new NamedThreadFactory(
+				"elasticsearch-reindex"));
+		try {
+			List<Future<Integer>> chunks = executor.submit(new ChunkReader(executor).asCallable()).get();
+			if (chunks == null) {
+				throw new ReindexException("Could not read the ids of " + clazz.getName());
+			}
+
+			long count = 0;
+			int failedChunks = 0;
+			for (Future<Integer> chunk : chunks) {
+				Integer chunkCount = chunk.get();
+				if (chunkCount != null) {
+					count += chunkCount;
+				} else {
+					failedChunks++;
+				}
+			}
+			count -= failedCount.get();
+
+			Logger.info("Elastic Search - reindexed %s documents of %s in %s ms, %s failed, %s of %s chunks failed",
+					count, clazz.getName(), System.currentTimeMillis() - start, failedCount.get(), failedChunks,
+					chunks.size());
+			return count;
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ReindexException("Interrupted while reindexing " + clazz.getName(), e);
+
+		} catch (ExecutionException e) {
+			throw new ReindexException("Could not reindex " + clazz.getName(), e.getCause());
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the ids in chunks, ordered by id, and hands each chunk to a
+	 * worker. At most two chunks per worker are waiting to be indexed, so the
+	 * ids are never read far ahead of the indexing.
+	 *
+	 * @param executor
+	 *            runs the workers
+	 * @return the chunks
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a worker
+	 */
+	protected List<Future<Integer>> submitChunks(ExecutorService executor) throws InterruptedException {
+		final Semaphore pendingChunks = new Semaphore(workers * 2);
+		List<Future<Integer>> chunks = new ArrayList<Future<Integer>>();
+		Object lastId = null;
+		while (true) {
+			final List<Object> ids = readIds(lastId, chunkSize);
+			if (ids.isEmpty()) {
+				break;
+			}
+
+			pendingChunks.acquire();
+			chunks.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					try {
+						return indexChunk(ids);
+					} finally {
+						pendingChunks.release();
+					}
+				}
+			}));
+
+			lastId = ids.get(ids.size() - 1);
+			if (ids.size() < chunkSize) {
+				break;
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Reads the next ids, in the transaction of the reading thread
+	 *
+	 * @param lastId
+	 *            the last id of the previous chunk, null for the first chunk
+	 * @param max
+	 *            the maximum number of ids
+	 * @return the ids following lastId, in order
+	 */
+	protected List<Object> readIds(Object lastId, int max) {
+		EntityManager em = JPA.em();
+		String entityName = em.getMetamodel().entity(clazz).getName();
+		String keyName = Model.Manager.factoryFor(clazz).keyName();
+
+		Query query;
+		if (lastId == null) {
+			query = em.createQuery("select e." + keyName + " from " + entityName + " e order by e." + keyName);
+		} else {
+			query = em.createQuery(
+					"select e." + keyName + " from " + entityName + " e where e." + keyName + " > :lastId order by e."
+							+ keyName).setParameter("lastId", lastId);
+		}
+		@SuppressWarnings("unchecked")
+		List<Object> ids = query.setMaxResults(max).getResultList();
+		return ids;
+	}
+
+	/**
+	 * Loads and indexes one chunk in a read-only transaction of its own
+	 *
+	 * @param ids
+	 *            the ids of the chunk
+	 * @return the number of entities in the chunk, null if the chunk failed
+	 */
+	protected Integer indexChunk(List<Object> ids) {
+		return new ChunkIndexer(ids).call();
+	}
+
+	/**
+	 * Reads the ids in the transaction of the reading thread
+	 */
+	@Transactional(readOnly = true)
+	private class ChunkReader extends Job<List<Future<Integer>>> {
+
+		private final ExecutorService executor;
+
+		ChunkReader(ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		Callable<List<Future<Integer>>> asCallable() {
+			return this;
+		}
+
+		@Override
+		public List<Future<Integer>> doJobWithResult() throws InterruptedException {
+			return submitChunks(executor);
+		}
+	}
+
+	/**
+	 * Loads one chunk of entities and bulk indexes them
+	 */
+	@Transactional(readOnly = true)
+	private class ChunkIndexer extends Job<Integer> {
+
+		private final List<Object> ids;
+
+		ChunkIndexer(List<Object> ids) {
+			this.ids = ids;
+		}
+
+		@Override
+		public Integer doJobWithResult() {
+			// Taken before reading, later changes carry a higher version
+			final long version = IndexRebuild.nextVersion();
+			EntityManager em = JPA.em();
+			String entityName = em.getMetamodel().entity(clazz).getName();
+			String keyName = Model.Manager.factoryFor(clazz).keyName();
+			List<M> models = em
+					.createQuery("select e from " + entityName + " e where e." + keyName + " in (:ids)", clazz)
+					.setParameter("ids", ids).getResultList();
+
+			BulkIndexer bulkIndexer = new BulkIndexer(models.size(), Long.MAX_VALUE, 0, 1, new CountingListener()) {
+				@Override
+				protected IndexRequest toIndexRequest(ElasticSearchIndexEvent event) throws IOException {
+					IndexRequest request = super.toIndexRequest(event);
+					if (targetIndex != null) {
+						request.index(targetIndex).version(version).versionType(VersionType.EXTERNAL);
+					}
+					return request;
+				}
+			};
+			for (M model : models) {
+				bulkIndexer.add(new ElasticSearchIndexEvent(model, Type.INDEX));
+			}
+			bulkIndexer.flush();
+
+			// Keep memory flat, the chunk is no longer needed
+			em.clear();
+			return models.size();
+		}
+
+		@Override
+		public String toString() {
+			return "ChunkIndexer [" + clazz.getName() + " " + ids.get(0) + ".." + ids.get(ids.size() - 1) + "]";
+		}
+	}
+
+	/**
+	 * Logs and counts the documents which could not be indexed
+	 */
+	private class CountingListener extends LoggingBulkIndexListener {
+
+		@Override
+		public void onItemFailure(ElasticSearchIndexEvent event, String failureMessage) {
+			// Changed or deleted since the chunk was read
+			if (targetIndex != null && failureMessage.contains("VersionConflictEngineException")) {
+				return;
+			}
+			failedCount.incrementAndGet();
+			super.onItemFailure(event, failureMessage);
+		}
+
+		@Override
+		public void onBulkFailure(List<ElasticSearchIndexEvent> events, Throwable t) {
+			failedCount.addAndGet(events.size());
+			super.onBulkFailure(events, t);
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package play.modules.elasticsearch.search;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+
+import play.db.Model;
+import play.modules.elasticsearch.transformer.Transformer;
+
+/**
+ * Lazily iterates over all hits of a scroll search.
+ *
+ * <p>
+ * Only one batch of hits is held at a time: the next batch is fetched from
+ * Elastic Search and transformed when the current one has been consumed, so
+ * large result sets can be processed with constant memory. The scroll expires
+ * on the server when the iterator is not advanced within the keep alive time.
+ *
+ * @param <T>
+ *            the model type
+ */
+public class ScrollIterator<T extends Model> implements Iterator<T> {
+
+	/** The client */
+	private final Client client;
+
+	/** How long the server keeps the scroll between two batches */
+	private final TimeValue keepAlive;
+
+	/** Transforms each batch of hits */
+	private final Transformer<T> transformer;
+
+	/** The model class */
+	private final Class<T> clazz;
+
+	/** The total number of hits */
+	private final long totalCount;
+
+	/** The scroll id of the next batch, null once the scroll is exhausted */
+	private String scrollId;
+
+	/** The current batch */
+	private List<T> batch;
+
+	/** Position in the current batch */
+	private int position;
+
+	/**
+	 * Creates an iterator
+	 *
+	 * @param client
+	 *            the client
+	 * @param searchResponse
+	 *            the response of the initial search request, which must have
+	 *            been executed with a scroll
+	 * @param keepAlive
+	 *            how long the server keeps the scroll between two batches
+	 * @param transformer
+	 *            transforms each batch of hits
+	 * @param clazz
+	 *            the model class
+	 */
+	public ScrollIterator(Client client, SearchResponse searchResponse, TimeValue keepAlive,
+			Transformer<T> transformer, Class<T> clazz) {
+		this.client = client;
+		this.keepAlive = keepAlive;
+		this.transformer = transformer;
+		this.clazz = clazz;
+		this.totalCount = searchResponse.hits().totalHits();
+
+		// A scan returns no hits with the initial response, other search types do
+		setBatch(searchResponse);
+	}
+
+	private void setBatch(SearchResponse searchResponse) {
+		if (searchResponse.hits().hits().length > 0) {
+			batch = transformer.toSearchResults(searchResponse, clazz).objects;
+		} else {
+			batch = null;
+		}
+		position = 0;
+
+		// An empty batch other than the initial one marks the end of the scroll
+		scrollId = (batch == null && scrollId != null) ? null : searchResponse.scrollId();
+	}
+
+	/**
+	 * Checks if there are more hits, fetching the next batch if necessary
+	 *
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while ((batch == null || position >= batch.size()) && scrollId != null) {
+			// Release the consumed batch before fetching the next one
+			batch = null;
+			setBatch(fetch(scrollId));
+		}
+		return batch != null && position < batch.size();
+	}
+
+	/**
+	 * Fetches the next batch of hits
+	 *
+	 * @param scrollId
+	 *            the scroll id
+	 * @return the search response
+	 */
+	protected SearchResponse fetch(String scrollId) {
+		return client.prepareSearchScroll(scrollId).setScroll(keepAlive).execute().actionGet();
+	}
+
+	/**
+	 * Gets the next hit
+	 *
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return batch.get(position++);
+	}
+
+	/**
+	 * Not supported
+	 *
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Hits cannot be removed");
+	}
+
+	/**
+	 * Gets the total number of hits
+	 *
+	 * @return the total number of hits
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+}
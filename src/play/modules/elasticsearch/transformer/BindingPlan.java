@@ -0,0 +1,92 @@
+package play.modules.elasticsearch.transformer;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import play.modules.elasticsearch.util.FieldAccessor;
+import play.modules.elasticsearch.util.ReflectionUtil;
+import play.modules.elasticsearch.util.SingleFlightCache;
+
+/**
+ * Binds the source of a hit to the fields of a model class.
+ *
+ * <p>
+ * The fields of a class and its superclasses are looked up once, so binding a
+ * value costs a map lookup instead of a scan over all fields. A value is bound
+ * to the first field whose name matches its name in the document, ignoring
+ * case. Values without a matching field are skipped.
+ */
+public class BindingPlan {
+
+	/** The plans, each one is built once per class */
+	private static final SingleFlightCache<Class<?>, BindingPlan> plans = new SingleFlightCache<Class<?>, BindingPlan>() {
+		@Override
+		protected BindingPlan create(Class<?> clazz) {
+			return new BindingPlan(clazz);
+		}
+	};
+
+	/** The field for each name a field is declared with */
+	private final Map<String, FieldAccessor> fields = new HashMap<String, FieldAccessor>();
+
+	/** The field for each lower case name */
+	private final Map<String, FieldAccessor> fieldsIgnoringCase = new HashMap<String, FieldAccessor>();
+
+	/**
+	 * Creates the plan of a class
+	 *
+	 * @param clazz
+	 *            the model class
+	 */
+	BindingPlan(Class<?> clazz) {
+		// Fields of the class come before the fields of its superclasses
+		for (Field field : ReflectionUtil.getAllFields(clazz)) {
+			String name = field.getName().toLowerCase(Locale.ENGLISH);
+			if (!fieldsIgnoringCase.containsKey(name)) {
+				fieldsIgnoringCase.put(name, new FieldAccessor(field));
+			}
+		}
+		for (Field field : ReflectionUtil.getAllFields(clazz)) {
+			fields.put(field.getName(), fieldsIgnoringCase.get(field.getName().toLowerCase(Locale.ENGLISH)));
+		}
+	}
+
+	/**
+	 * Gets the plan of a class, building it if needed
+	 *
+	 * @param clazz
+	 *            the model class
+	 * @return the plan
+	 */
+	public static BindingPlan forClass(Class<?> clazz) {
+		return plans.get(clazz);
+	}
+
+	/**
+	 * Binds the values of a hit to a model
+	 *
+	 * @param model
+	 *            the model
+	 * @param source
+	 *            the values by name in the document
+	 */
+	public void bind(Object model, Map<String, Object> source) {
+		for (Map.Entry<String, Object> entry : source.entrySet()) {
+			FieldAccessor field = getField(entry.getKey());
+			if (field != null) {
+				field.set(model, entry.getValue());
+			}
+		}
+	}
+
+	private FieldAccessor getField(String name) {
+		FieldAccessor field = fields.get(name);
+		if (field == null) {
+			field = fieldsIgnoringCase.get(name.toLowerCase(Locale.ENGLISH));
+		}
+		return field;
+	}
+
+}
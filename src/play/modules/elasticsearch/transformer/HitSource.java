@@ -0,0 +1,38 @@
+package play.modules.elasticsearch.transformer;
+
+import java.util.Map;
+
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+
+/**
+ * Reads the source of a search hit, which is either the whole document or
+ * only the fields requested with
+ * {@link play.modules.elasticsearch.Query#fields(String...)}.
+ */
+public abstract class HitSource {
+
+	/** Name of the partial field holding the requested fields */
+	public static final String PARTIAL_FIELD = "partial";
+
+	private HitSource() {
+		// private
+	}
+
+	/**
+	 * Gets the source of a hit as a map
+	 * 
+	 * @param hit
+	 *            the hit
+	 * @return the requested fields if only some were requested, the whole
+	 *         source otherwise
+	 */
+	public static Map<String, Object> get(SearchHit hit) {
+		SearchHitField partial = hit.field(PARTIAL_FIELD);
+		if (partial != null) {
+			return partial.value();
+		}
+		return hit.sourceAsMap();
+	}
+
+}
@@ -1,12 +1,9 @@
 package play.modules.elasticsearch.transformer;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.search.SearchHit;
@@ -15,7 +12,6 @@ import play.Logger;
 import play.Play;
 import play.data.binding.Binder;
 import play.db.Model;
-import play.db.jpa.JPQL;
 import play.exceptions.UnexpectedException;
 import play.modules.elasticsearch.ElasticSearchPlugin;
 import play.modules.elasticsearch.search.SearchResults;
@@ -55,8 +51,8 @@ public class JPATransformer<T extends Model> implements Transformer<T> {
 
 		// Store object ids categorized by model
 		Map<Class<T>, List<Object>> allIds = new HashMap<Class<T>, List<Object>>();
-		// Store original order
-		Map<Class<T>, Map<Object, Integer>> order = new HashMap<Class<T>, Map<Object, Integer>>();
+		// Store the hit position of each id
+		Map<Class<T>, List<Integer>> positions = new HashMap<Class<T>, List<Integer>>();
 		// Store scores and sortValues
 		List<Float> scores = new ArrayList<Float>();
 		List<Object[]> sortValues = new ArrayList<Object[]>();
@@ -81,13 +77,13 @@ public class JPATransformer<T extends Model> implements Transformer<T> {
 				}
 				modelIds.add(id);
 
-				// mark order
-				Map<Object, Integer> modelOrder = order.get(hitClazz);
-				if (modelOrder == null) {
-					modelOrder = new HashMap<Object, Integer>();
-					order.put(hitClazz, modelOrder);
+				// mark position
+				List<Integer> modelPositions = positions.get(hitClazz);
+				if (modelPositions == null) {
+					modelPositions = new ArrayList<Integer>();
+					positions.put(hitClazz, modelPositions);
 				}
-				modelOrder.put(id, counter++);
+				modelPositions.add(counter++);
 
 				scores.add(h.score());
 				sortValues.add(h.sortValues());
@@ -100,17 +96,17 @@ public class JPATransformer<T extends Model> implements Transformer<T> {
 
 		Logger.debug("Model IDs returned by ES: %s", allIds);
 
-		List<T> objects = new ArrayList<T>();
+		// Load each model into the position of its hit
+		Model[] hits = new Model[counter];
+		new ModelHydrator().hydrateAll(allIds, positions, hits);
 
-		// iterate over all models
-		for (Entry<Class<T>, List<Object>> entry : allIds.entrySet()) {
-			// get all ids for the model
-			List<T> modelObjects = loadFromDb(entry.getKey(), entry.getValue());
-			objects.addAll(modelObjects);
+		List<T> objects = new ArrayList<T>(counter);
+		for (Model hit : hits) {
+			if (hit != null) {
+				objects.add(clazz.cast(hit));
+			}
 		}
 
-		sortByOrder(objects, order);
-
 		// Make sure all items exist in the database
 		if (objects.size() != counter) {
 			if (shouldFailOnMissingObjects()) {
@@ -130,40 +126,4 @@ public class JPATransformer<T extends Model> implements Transformer<T> {
 	private boolean shouldFailOnMissingObjects() {
 		return Boolean.getBoolean(Play.configuration.getProperty("elasticsearch.failOnMissingObjects", "true"));
 	}
-
-	/**
-	 * Load entities from database
-	 * 
-	 * @param <T>
-	 * @param clazz
-	 * @param ids
-	 * @return
-	 */
-	private static <T extends Model> List<T> loadFromDb(Class<T> clazz, List<Object> ids) {
-		// JPA maps the "id" field to the key automatically
-		List<T> objects = JPQL.instance.find(clazz.getName(), "id in (?1)", new Object[] { ids })
-				.fetch();
-
-		return objects;
-	}
-
-	/**
-	 * Sort list of objects according to the order of their keys as defined by ids
-	 * 
-	 * @param <T>
-	 * @param objects
-	 * @param ids
-	 */
-	private static <T extends Model> void sortByOrder(List<T> objects, final Map<Class<T>, Map<Object, Integer>> order) {
-		Collections.sort(objects, new Comparator<T>() {
-
-			@Override
-			public int compare(T arg0, T arg1) {
-				Integer idx0 = order.get(arg0.getClass()).get(arg0._key());
-				Integer idx1 = order.get(arg1.getClass()).get(arg1._key());
-
-				return idx0.compareTo(idx1);
-			}
-		});
-	}
 }
@@ -18,12 +18,17 @@
  */
 package play.modules.elasticsearch.transformer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.elasticsearch.ElasticSearchParseException;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
 
 import play.Logger;
 import play.db.Model;
@@ -38,6 +43,11 @@ import play.modules.elasticsearch.search.SearchResults;
  * Since this transformer uses a {@link ModelMapper} to handle model inflation,
  * it supports everything handled by the available mappers.
  * <p>
+ * The source of each hit is read with a parser and bound to the model while
+ * parsing, so no map of the document is built in between. Only the fields
+ * requested with {@link play.modules.elasticsearch.Query#fields(String...)}
+ * come as a map already and are bound from it.
+ * <p>
  * At some point (after enough testing) this should become the default
  * transformer.
  * 
@@ -67,21 +77,17 @@ public class MapperTransformer<T extends Model> implements Transformer<T> {
         List<Object[]> sortValues = new ArrayList<Object[]>();
 
         Class<T> hitClazz = clazz;
-        ModelMapper<T> mapper = ElasticSearchPlugin.getMapper(hitClazz);
+        ModelMapper<T> mapper = getMapper(hitClazz);
 
 		// Loop on each one
 		for (SearchHit h : searchResponse.hits()) {
 			if (clazz.equals(play.db.Model.class)) {
 				 hitClazz = (Class<T>) ElasticSearchPlugin.lookupModel(h.getType());
-				 mapper = ElasticSearchPlugin.getMapper(hitClazz);
+				 mapper = getMapper(hitClazz);
 			}
 			
-			// Get Data Map
-			Map<String, Object> map = h.sourceAsMap();
-			Logger.debug("Record Map: %s", map);
-
 			// Let mapper create models
-			T o = mapper.createModel(map);
+			T o = createModel(mapper, h);
 
 			// Log Debug
 			Logger.debug("Model Instance: %s", o);
@@ -94,4 +100,44 @@ public class MapperTransformer<T extends Model> implements Transformer<T> {
 		return new SearchResults<T>(count, objects, scores, sortValues, searchResponse.facets());
 	}
 
+	/**
+	 * Gets the mapper of a model class
+	 * 
+	 * @param clazz
+	 *            the model class
+	 * @return the mapper
+	 */
+	protected ModelMapper<T> getMapper(Class<T> clazz) {
+		return ElasticSearchPlugin.getMapper(clazz);
+	}
+
+	/**
+	 * Creates the model of a hit
+	 * 
+	 * @param mapper
+	 *            the mapper of the hit's model class
+	 * @param hit
+	 *            the hit
+	 * @return the model
+	 */
+	private static <T> T createModel(ModelMapper<T> mapper, SearchHit hit) {
+		SearchHitField partial = hit.field(HitSource.PARTIAL_FIELD);
+		if (partial != null) {
+			Map<String, Object> map = partial.value();
+			return mapper.createModel(map);
+		}
+
+		XContentParser parser = null;
+		try {
+			parser = XContentHelper.createParser(hit.sourceRef());
+			return mapper.createModel(parser);
+		} catch (IOException e) {
+			throw new ElasticSearchParseException("Failed to parse source of hit " + hit.getId(), e);
+		} finally {
+			if (parser != null) {
+				parser.close();
+			}
+		}
+	}
+
 }
@@ -0,0 +1,313 @@
+package play.modules.elasticsearch.transformer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+
+import org.hibernate.EntityMode;
+import org.hibernate.MappingException;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import play.Play;
+import play.db.Model;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAPlugin;
+import play.exceptions.UnexpectedException;
+import play.modules.elasticsearch.util.NamedThreadFactory;
+
+/**
+ * Loads the models of search hits from the database and puts each one at the
+ * position of its hit.
+ *
+ * <p>
+ * Models already managed by the current session or held by the second-level
+ * cache are taken from there. The others are loaded with one query per chunk of ids, set in conf/application.conf:
+ *
+ * <pre>
+ * elasticsearch.hydration.chunkSize = 500
+ * </pre>
+ *
+ * The id list of a chunk is padded to a power of two, so the database sees
+ * only a few distinct statements.
+ *
+ * <p>
+ * The hits of a search over several model classes can be loaded in parallel,
+ * one class per thread:
+ *
+ * <pre>
+ * elasticsearch.hydration.threads = 4
+ * </pre>
+ *
+ * Each thread loads its models in its own read-only transaction, so they are
+ * detached from the persistence context of the caller. Associations which
+ * are not fetched eagerly cannot be loaded from them. The default of 0 loads
+ * all models in the caller's transaction.
+ */
+public class ModelHydrator {
+
+	/** Loads the models of several classes in parallel, created when first needed */
+	private static ExecutorService executor = null;
+
+	/** Maximum number of ids per query */
+	private final int chunkSize;
+
+	/** Number of threads for loading several classes in parallel, 0 to load them in turn */
+	private final int threads;
+
+	/**
+	 * Creates a hydrator with the configured chunk size
+	 */
+	public ModelHydrator() {
+		this(getChunkSize(), getThreads());
+	}
+
+	/**
+	 * Creates a hydrator
+	 *
+	 * @param chunkSize
+	 *            maximum number of ids per query
+	 * @param threads
+	 *            number of threads for loading several classes in parallel, 0
+	 *            to load them in turn
+	 */
+	public ModelHydrator(int chunkSize, int threads) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be positive");
+		}
+		this.chunkSize = chunkSize;
+		this.threads = threads;
+	}
+
+	private static int getChunkSize() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.hydration.chunkSize", "500"));
+	}
+
+	private static int getThreads() {
+		return Integer.parseInt(Play.configuration.getProperty("elasticsearch.hydration.threads", "0"));
+	}
+
+	private static synchronized ExecutorService getExecutor(int threads) {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("elasticsearch-hydration"));
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the threads loading several classes in parallel
+	 */
+	public static synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Loads the models of several classes, in parallel if configured
+	 *
+	 * @param <T>
+	 *            the model type
+	 * @param ids
+	 *            the ids of the hits by model class
+	 * @param positions
+	 *            the positions of the hits by model class, in the same order
+	 *            as the ids
+	 * @param results
+	 *            receives each model at the position of its hit
+	 */
+	public <T extends Model> void hydrateAll(Map<Class<T>, List<Object>> ids,
+			final Map<Class<T>, List<Integer>> positions, final Model[] results) {
+		if (ids.size() < 2 || threads < 1) {
+			for (Map.Entry<Class<T>, List<Object>> entry : ids.entrySet()) {
+				hydrate(entry.getKey(), entry.getValue(), positions.get(entry.getKey()), results);
+			}
+			return;
+		}
+
+		// Each class fills its own positions of the results
+		List<Future<Void>> loads = new ArrayList<Future<Void>>(ids.size());
+		ExecutorService executor = getExecutor(threads);
+		for (final Map.Entry<Class<T>, List<Object>> entry : ids.entrySet()) {
+			loads.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					hydrateInTransaction(entry.getKey(), entry.getValue(), positions.get(entry.getKey()), results);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> load : loads) {
+				load.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnexpectedException("Interrupted while loading the models of the hits");
+		} catch (ExecutionException e) {
+			throw new UnexpectedException(e.getCause());
+		}
+	}
+
+	/**
+	 * Loads the models of one class
+	 *
+	 * @param <T>
+	 *            the model type
+	 * @param clazz
+	 *            the model class
+	 * @param ids
+	 *            the ids of the hits
+	 * @param positions
+	 *            the position of each hit, in the same order as the ids
+	 * @param results
+	 *            receives each model at the position of its hit; positions of
+	 *            models missing in the database are left alone
+	 */
+	public <T extends Model> void hydrate(Class<T> clazz, List<Object> ids, List<Integer> positions,
+			Model[] results) {
+		Map<Object, Integer> positionById = new HashMap<Object, Integer>(ids.size() * 2);
+		for (int i = 0; i < ids.size(); i++) {
+			positionById.put(ids.get(i), positions.get(i));
+		}
+
+		List<Object> misses = new ArrayList<Object>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			T model = findCached(clazz, ids.get(i));
+			if (model != null) {
+				results[positions.get(i)] = model;
+			} else {
+				misses.add(ids.get(i));
+			}
+		}
+
+		for (int from = 0; from < misses.size(); from += chunkSize) {
+			List<Object> chunk = pad(misses.subList(from, Math.min(from + chunkSize, misses.size())));
+			for (T model : load(clazz, chunk)) {
+				Integer position = positionById.get(model._key());
+				if (position != null) {
+					results[position] = model;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets a model already managed by the current persistence context or held
+	 * by the second-level cache, so neither costs a database round trip
+	 *
+	 * @param <T>
+	 *            the model type
+	 * @param clazz
+	 *            the model class
+	 * @param id
+	 *            the id
+	 * @return the model, or null if it is neither managed nor cached
+	 */
+	protected <T extends Model> T findCached(Class<T> clazz, Object id) {
+		EntityManager em = JPA.em();
+		Cache cache = em.getEntityManagerFactory().getCache();
+		if (!isManaged(em, clazz, id) && (cache == null || !cache.contains(clazz, id))) {
+			return null;
+		}
+		return em.find(clazz, id);
+	}
+
+	/**
+	 * Checks the Hibernate persistence context for an entity without loading it
+	 *
+	 * @param em
+	 *            the entity manager
+	 * @param clazz
+	 *            the model class
+	 * @param id
+	 *            the id
+	 * @return true if the session already holds the entity
+	 */
+	private static boolean isManaged(EntityManager em, Class<?> clazz, Object id) {
+		if (!(em.getDelegate() instanceof SessionImplementor) || !(id instanceof Serializable)) {
+			return false;
+		}
+		SessionImplementor session = (SessionImplementor) em.getDelegate();
+		try {
+			EntityPersister persister = session.getFactory().getEntityPersister(clazz.getName());
+			EntityKey key = new EntityKey((Serializable) id, persister, EntityMode.POJO);
+			return session.getPersistenceContext().getEntity(key) != null;
+		} catch (MappingException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the models of one chunk of ids with a single query
+	 *
+	 * @param <T>
+	 *            the model type
+	 * @param clazz
+	 *            the model class
+	 * @param ids
+	 *            the ids, padded to a power of two
+	 * @return the models found, in any order
+	 */
+	protected <T extends Model> List<T> load(Class<T> clazz, List<Object> ids) {
+		EntityManager em = JPA.em();
+		String entityName = em.getMetamodel().entity(clazz).getName();
+		String keyName = Model.Manager.factoryFor(clazz).keyName();
+		return em.createQuery("select e from " + entityName + " e where e." + keyName + " in (:ids)", clazz)
+				.setParameter("ids", ids).getResultList();
+	}
+
+	/**
+	 * Loads the models of one class in a read-only transaction of its own.
+	 * Runs on a thread of the pool, exceptions are passed on to the caller of
+	 * {@link #hydrateAll(Map, Map, Model[])}.
+	 *
+	 * @param <T>
+	 *            the model type
+	 * @param clazz
+	 *            the model class
+	 * @param ids
+	 *            the ids of the hits
+	 * @param positions
+	 *            the position of each hit, in the same order as the ids
+	 * @param results
+	 *            receives each model at the position of its hit
+	 */
+	protected <T extends Model> void hydrateInTransaction(Class<T> clazz, List<Object> ids, List<Integer> positions,
+			Model[] results) {
+		JPAPlugin.startTx(true);
+		try {
+			hydrate(clazz, ids, positions, results);
+		} finally {
+			// Nothing to commit
+			JPAPlugin.closeTx(true);
+		}
+	}
+
+	/**
+	 * Pads ids to the next power of two, at most the chunk size, by repeating
+	 * the last one
+	 */
+	private List<Object> pad(List<Object> ids) {
+		int size = Math.min(Integer.highestOneBit(ids.size() * 2 - 1), chunkSize);
+		List<Object> padded = new ArrayList<Object>(size);
+		padded.addAll(ids);
+		while (padded.size() < size) {
+			padded.add(ids.get(ids.size() - 1));
+		}
+		return padded;
+	}
+
+}
@@ -72,17 +72,16 @@ public class SimpleTransformer<T extends Model> implements Transformer<T> {
 				hitClazz = (Class<T>) ElasticSearchPlugin.lookupModel(h.getType());
 			}
 			T o = ReflectionUtil.newInstance(hitClazz);
+			BindingPlan plan = BindingPlan.forClass(hitClazz);
 			 
 			
 
 			// Get Data Map
-			Map<String, Object> map = h.sourceAsMap();
+			Map<String, Object> map = HitSource.get(h);
 			Logger.debug("Record Map: %s", map);
 
 			// Bind Data
-			for (Map.Entry<String, Object> e : map.entrySet()) {
-				ReflectionUtil.setFieldValue(o, e.getKey(), e.getValue());
-			}
+			plan.bind(o, map);
 
 			// Log Debug
 			Logger.debug("Model Instance: %s", o);
@@ -0,0 +1,61 @@
+package play.modules.elasticsearch.util;
+
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+/**
+ * Keeps one byte buffer per thread for rendering documents, so indexing many
+ * documents does not allocate and grow a new buffer for each of them.
+ *
+ * <p>
+ * A buffer is taken from the pool while it is in use, so nested use on the
+ * same thread gets a new buffer. Buffers which grew beyond the maximum
+ * retained size are not kept, so one large document does not pin its buffer
+ * for the lifetime of the thread.
+ */
+public class BufferPool {
+
+	/** The idle buffer of each thread */
+	private final ThreadLocal<BytesStreamOutput> buffers = new ThreadLocal<BytesStreamOutput>();
+
+	/** Buffers holding more bytes are not kept */
+	private final int maxRetainedBytes;
+
+	/**
+	 * Creates a buffer pool
+	 *
+	 * @param maxRetainedBytes
+	 *            buffers which held more bytes are dropped when released
+	 */
+	public BufferPool(int maxRetainedBytes) {
+		this.maxRetainedBytes = maxRetainedBytes;
+	}
+
+	/**
+	 * Gets an empty buffer, the buffer of this thread if it is idle
+	 *
+	 * @return the buffer
+	 */
+	public BytesStreamOutput acquire() {
+		BytesStreamOutput buffer = buffers.get();
+		if (buffer == null) {
+			return new BytesStreamOutput();
+		}
+
+		buffers.remove();
+		buffer.reset();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Its content must no longer be used.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 */
+	public void release(BytesStreamOutput buffer) {
+		if (buffer.size() <= maxRetainedBytes) {
+			buffers.set(buffer);
+		}
+	}
+
+}
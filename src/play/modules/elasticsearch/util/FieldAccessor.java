@@ -0,0 +1,70 @@
+package play.modules.elasticsearch.util;
+
+import java.lang.reflect.Field;
+
+import play.Logger;
+import play.modules.elasticsearch.mapping.MappingUtil;
+
+/**
+ * Reads and writes one field. The field is looked up and made accessible once,
+ * so mapping a model does not repeat the lookup and the access check for every
+ * document.
+ */
+public class FieldAccessor {
+
+	/** The field */
+	private final Field field;
+
+	/** The field type, values are converted to it when set */
+	private final Class<?> fieldType;
+
+	/**
+	 * Creates an accessor
+	 *
+	 * @param field
+	 *            the field
+	 */
+	public FieldAccessor(Field field) {
+		this.field = field;
+		this.fieldType = field.getType();
+		field.setAccessible(true);
+	}
+
+	/**
+	 * Gets the field value.
+	 *
+	 * @param object
+	 *            the object
+	 * @return the field value, or null if it cannot be read
+	 */
+	public Object get(Object object) {
+		try {
+			return field.get(object);
+		} catch (Exception e) {
+			Logger.warn(ExceptionUtil.getStackTrace(e));
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the field value, converting it to the field type where needed.
+	 *
+	 * @param object
+	 *            the object
+	 * @param value
+	 *            the value
+	 */
+	public void set(Object object, Object value) {
+		try {
+			if (value != null) {
+				value = MappingUtil.convertValue(value, fieldType);
+			}
+			field.set(object, value);
+		} catch (IllegalArgumentException e) {
+			Logger.error(ExceptionUtil.getStackTrace(e));
+		} catch (IllegalAccessException e) {
+			Logger.error(ExceptionUtil.getStackTrace(e));
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package play.modules.elasticsearch.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads, e.g. elasticsearch-indexer-1
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+	/** The thread name prefix */
+	private final String prefix;
+
+	/** Number of the last thread created */
+	private final AtomicInteger counter = new AtomicInteger();
+
+	/**
+	 * Creates a thread factory
+	 *
+	 * @param prefix
+	 *            the thread name prefix, a dash and the thread number are
+	 *            appended
+	 */
+	public NamedThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+}
@@ -0,0 +1,89 @@
+package play.modules.elasticsearch.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread-safe cache which creates each value exactly once. Threads asking
+ * for a value which is being created wait for it instead of creating it again.
+ * Reading a created value does not lock.
+ *
+ * <p>
+ * If creating a value fails, the failure is thrown to all threads waiting for
+ * it and the next request tries again.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public abstract class SingleFlightCache<K, V> {
+
+	/** The values, created or being created */
+	private final ConcurrentMap<K, FutureTask<V>> values = new ConcurrentHashMap<K, FutureTask<V>>();
+
+	/**
+	 * Creates the value for a key. Called once per key, unless it fails.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value
+	 * @throws Exception
+	 */
+	protected abstract V create(K key) throws Exception;
+
+	/**
+	 * Gets the value for a key, creating it if needed
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value
+	 */
+	public V get(final K key) {
+		FutureTask<V> value = values.get(key);
+		if (value == null) {
+			FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+				@Override
+				public V call() throws Exception {
+					return create(key);
+				}
+			});
+			value = values.putIfAbsent(key, task);
+			if (value == null) {
+				// This thread won, the others wait for it
+				value = task;
+				task.run();
+			}
+		}
+
+		try {
+			return value.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " + key, e);
+
+		} catch (ExecutionException e) {
+			values.remove(key, value);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Could not create value for " + key, cause);
+		}
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		values.clear();
+	}
+
+}
@@ -0,0 +1,86 @@
+package client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.client.Client;
+import org.junit.Test;
+
+import play.modules.elasticsearch.ClientBootstrap;
+import play.test.UnitTest;
+
+/**
+ * Tests for waiting on the cluster in the background
+ */
+public class ClientBootstrapTest extends UnitTest {
+
+	/**
+	 * A bootstrap whose cluster becomes ready after a number of health checks
+	 */
+	private static class FakeBootstrap extends ClientBootstrap {
+		final Client client = (Client) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Client.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return null;
+					}
+				});
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger checks = new AtomicInteger();
+		volatile int readyAfter;
+
+		FakeBootstrap(long timeout, int readyAfter) {
+			super(timeout, 20);
+			this.readyAfter = readyAfter;
+		}
+
+		@Override
+		protected Client createClient() {
+			created.incrementAndGet();
+			return client;
+		}
+
+		@Override
+		protected boolean isClusterReady(Client client) throws Exception {
+			if (checks.incrementAndGet() < readyAfter) {
+				throw new IllegalStateException("No node available");
+			}
+			return true;
+		}
+	}
+
+	@Test
+	public void testClientIsReturnedOnceClusterIsReady() {
+		FakeBootstrap bootstrap = new FakeBootstrap(10000, 3);
+		assertEquals(ClientBootstrap.State.STOPPED, bootstrap.getState());
+
+		bootstrap.start();
+		assertSame(bootstrap.client, bootstrap.getClient());
+		assertEquals(ClientBootstrap.State.READY, bootstrap.getState());
+		assertEquals(3, bootstrap.checks.get());
+
+		// No further checks once ready
+		assertSame(bootstrap.client, bootstrap.getClient());
+		assertEquals(3, bootstrap.checks.get());
+		assertEquals(1, bootstrap.created.get());
+	}
+
+	@Test
+	public void testFailsAfterTimeoutAndRetries() {
+		FakeBootstrap bootstrap = new FakeBootstrap(100, Integer.MAX_VALUE);
+		try {
+			bootstrap.getClient();
+			fail("The cluster never becomes ready");
+		} catch (IllegalStateException e) {
+			assertEquals(ClientBootstrap.State.FAILED, bootstrap.getState());
+		}
+
+		// The next call starts over with the same client
+		bootstrap.readyAfter = 0;
+		assertSame(bootstrap.client, bootstrap.getClient());
+		assertEquals(1, bootstrap.created.get());
+	}
+
+}
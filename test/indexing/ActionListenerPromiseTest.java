@@ -0,0 +1,40 @@
+package indexing;
+
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.adapter.ActionListenerPromise;
+import play.test.UnitTest;
+
+/**
+ * Tests for redeeming promises from Elastic Search callbacks
+ */
+public class ActionListenerPromiseTest extends UnitTest {
+
+	@Test
+	public void testResponse() throws Exception {
+		ActionListenerPromise<String> promise = new ActionListenerPromise<String>();
+		assertFalse(promise.isDone());
+
+		promise.onResponse("response");
+		assertTrue(promise.isDone());
+		assertEquals("response", promise.get());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		ActionListenerPromise<String> promise = new ActionListenerPromise<String>();
+		IllegalStateException failure = new IllegalStateException("failed");
+		promise.onFailure(failure);
+
+		assertTrue(promise.isDone());
+		try {
+			promise.get();
+			fail("Expected the failure to be thrown");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package indexing;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.junit.Test;
+
+import play.modules.elasticsearch.util.BufferPool;
+import play.test.UnitTest;
+
+/**
+ * Tests for the per-thread buffer pool
+ */
+public class BufferPoolTest extends UnitTest {
+
+	@Test
+	public void testBufferIsReused() throws IOException {
+		BufferPool pool = new BufferPool(1024);
+		BytesStreamOutput buffer = pool.acquire();
+		buffer.writeBytes(new byte[100], 0, 100);
+		pool.release(buffer);
+
+		BytesStreamOutput reused = pool.acquire();
+		assertSame(buffer, reused);
+		assertEquals(0, reused.size());
+	}
+
+	@Test
+	public void testBufferInUseIsNotShared() {
+		BufferPool pool = new BufferPool(1024);
+		BytesStreamOutput outer = pool.acquire();
+		pool.release(outer);
+
+		BytesStreamOutput first = pool.acquire();
+		BytesStreamOutput second = pool.acquire();
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testLargeBufferIsDropped() throws IOException {
+		BufferPool pool = new BufferPool(1024);
+		BytesStreamOutput buffer = pool.acquire();
+		buffer.writeBytes(new byte[2048], 0, 2048);
+		pool.release(buffer);
+
+		assertNotSame(buffer, pool.acquire());
+	}
+
+}
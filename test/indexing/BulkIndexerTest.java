@@ -0,0 +1,221 @@
+package indexing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.VersionType;
+import org.junit.Test;
+
+import play.libs.F;
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.bulk.BulkIndexListener;
+import play.modules.elasticsearch.bulk.BulkIndexer;
+import play.modules.elasticsearch.reindex.IndexRebuild;
+import play.test.UnitTest;
+
+/**
+ * Tests for sending index events in bulk requests
+ */
+public class BulkIndexerTest extends UnitTest {
+
+	/**
+	 * Keeps the sent bulk requests, which are answered by the test
+	 */
+	private static class FakeBulkIndexer extends BulkIndexer {
+		final List<BulkRequest> requests = Collections.synchronizedList(new ArrayList<BulkRequest>());
+		final List<ActionListener<BulkResponse>> responseListeners = Collections
+				.synchronizedList(new ArrayList<ActionListener<BulkResponse>>());
+
+		FakeBulkIndexer(int maxActions, long maxBytes, BulkIndexListener listener) {
+			super(maxActions, maxBytes, 60000, listener);
+		}
+
+		@Override
+		protected void send(BulkRequest request, ActionListener<BulkResponse> responseListener) {
+			requests.add(request);
+			responseListeners.add(responseListener);
+		}
+
+		void respond(int request, BulkItemResponse... items) {
+			responseListeners.get(request).onResponse(new BulkResponse(items, 1));
+		}
+	}
+
+	/**
+	 * Records the reported failures
+	 */
+	private static class RecordingListener implements BulkIndexListener {
+		final List<ElasticSearchIndexEvent> failed = new ArrayList<ElasticSearchIndexEvent>();
+
+		@Override
+		public void onItemFailure(ElasticSearchIndexEvent event, String failureMessage) {
+			failed.add(event);
+		}
+
+		@Override
+		public void onBulkFailure(List<ElasticSearchIndexEvent> events, Throwable t) {
+			failed.addAll(events);
+		}
+	}
+
+	private static ElasticSearchIndexEvent event(String id, String source) {
+		return new ElasticSearchIndexEvent("index", "post", id, Type.INDEX, source.getBytes());
+	}
+
+	private static BulkItemResponse success(int itemId) {
+		return new BulkItemResponse(itemId, "index", (ActionResponse) null);
+	}
+
+	private static BulkItemResponse failure(int itemId, String id) {
+		return new BulkItemResponse(itemId, "index", new BulkItemResponse.Failure("index", "post", id,
+				"MapperParsingException"));
+	}
+
+	@Test
+	public void testFlushAfterMaxActions() {
+		FakeBulkIndexer bulkIndexer = new FakeBulkIndexer(3, Long.MAX_VALUE, new RecordingListener());
+		bulkIndexer.add(event("1", "{}"));
+		bulkIndexer.add(event("2", "{}"));
+		assertEquals(0, bulkIndexer.requests.size());
+		assertEquals(2, bulkIndexer.size());
+
+		bulkIndexer.add(event("3", "{}"));
+		assertEquals(1, bulkIndexer.requests.size());
+		assertEquals(3, bulkIndexer.requests.get(0).numberOfActions());
+		assertEquals(0, bulkIndexer.size());
+	}
+
+	@Test
+	public void testFlushAfterMaxBytes() {
+		FakeBulkIndexer bulkIndexer = new FakeBulkIndexer(100, 20, new RecordingListener());
+		bulkIndexer.add(event("1", "{\"a\":1}"));
+		assertEquals(0, bulkIndexer.requests.size());
+
+		bulkIndexer.add(event("2", "{\"title\":\"a long title\"}"));
+		assertEquals(1, bulkIndexer.requests.size());
+		assertEquals(2, bulkIndexer.requests.get(0).numberOfActions());
+	}
+
+	@Test
+	public void testFailedItemsAreMappedToTheirEvents() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		FakeBulkIndexer bulkIndexer = new FakeBulkIndexer(100, Long.MAX_VALUE, listener);
+		ElasticSearchIndexEvent failed = event("2", "{}");
+		bulkIndexer.add(event("1", "{}"));
+		bulkIndexer.add(failed);
+		bulkIndexer.add(event("3", "{}"));
+
+		F.Promise<BulkIndexer.Result> result = bulkIndexer.flushAsync();
+		bulkIndexer.respond(0, success(0), failure(1, "2"), success(2));
+
+		assertEquals(BulkIndexer.Result.ITEM_FAILURES, result.get());
+		assertEquals(1, listener.failed.size());
+		assertSame(failed, listener.failed.get(0));
+	}
+
+	@Test
+	public void testResultOfFlush() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		FakeBulkIndexer bulkIndexer = new FakeBulkIndexer(100, Long.MAX_VALUE, listener);
+		bulkIndexer.add(event("1", "{}"));
+		F.Promise<BulkIndexer.Result> result = bulkIndexer.flushAsync();
+		bulkIndexer.respond(0, success(0));
+		assertEquals(BulkIndexer.Result.SUCCESS, result.get());
+
+		bulkIndexer.add(event("2", "{}"));
+		result = bulkIndexer.flushAsync();
+		bulkIndexer.responseListeners.get(1).onFailure(new IllegalStateException("No node available"));
+		assertEquals(BulkIndexer.Result.FAILURE, result.get());
+		assertEquals(1, listener.failed.size());
+
+		// Nothing pending
+		assertEquals(BulkIndexer.Result.SUCCESS, bulkIndexer.flush());
+	}
+
+	@Test
+	public void testAddDoesNotWaitForFlush() throws Exception {
+		final FakeBulkIndexer bulkIndexer = new FakeBulkIndexer(100, Long.MAX_VALUE, new RecordingListener());
+		bulkIndexer.add(event("1", "{}"));
+		bulkIndexer.flushAsync();
+		assertEquals(1, bulkIndexer.getInFlightCount());
+
+		// The second flush waits for the first bulk request to complete
+		bulkIndexer.add(event("2", "{}"));
+		final CountDownLatch flushed = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				bulkIndexer.flushAsync();
+				flushed.countDown();
+			}
+		}.start();
+		assertFalse(flushed.await(100, TimeUnit.MILLISECONDS));
+
+		// Meanwhile events can still be added
+		bulkIndexer.add(event("3", "{}"));
+
+		bulkIndexer.respond(0, success(0));
+		assertTrue(flushed.await(5, TimeUnit.SECONDS));
+		assertEquals(2, bulkIndexer.requests.size());
+		assertEquals(1, bulkIndexer.size());
+	}
+
+	@Test
+	public void testWritesToRebuildIndex() throws Exception {
+		IndexRebuild.update(MetaData.builder().put(
+				IndexMetaData.builder("index_v2").settings(
+						ImmutableSettings.settingsBuilder().put("index.number_of_shards", 1)
+								.put("index.number_of_replicas", 0)).putAlias(
+						AliasMetaData.builder("index" + IndexRebuild.MARKER_SUFFIX))).build());
+		try {
+			RecordingListener listener = new RecordingListener();
+			FakeBulkIndexer bulkIndexer = new FakeBulkIndexer(100, Long.MAX_VALUE, listener);
+			bulkIndexer.add(event("1", "{}"));
+			bulkIndexer.add(new ElasticSearchIndexEvent("index", "post", "2", Type.DELETE, null));
+			F.Promise<BulkIndexer.Result> result = bulkIndexer.flushAsync();
+
+			List<ActionRequest> items = bulkIndexer.requests.get(0).requests();
+			assertEquals(4, items.size());
+			IndexRequest index = (IndexRequest) items.get(0);
+			IndexRequest rebuildIndex = (IndexRequest) items.get(1);
+			assertEquals("index", index.index());
+			assertEquals(VersionType.INTERNAL, index.versionType());
+			assertEquals("index_v2", rebuildIndex.index());
+			assertEquals("1", rebuildIndex.id());
+			assertEquals(VersionType.EXTERNAL, rebuildIndex.versionType());
+			DeleteRequest delete = (DeleteRequest) items.get(2);
+			DeleteRequest rebuildDelete = (DeleteRequest) items.get(3);
+			assertEquals("index", delete.index());
+			assertEquals("index_v2", rebuildDelete.index());
+			assertEquals(VersionType.EXTERNAL, rebuildDelete.versionType());
+			assertTrue(rebuildDelete.version() > rebuildIndex.version());
+
+			// A write older than the document in the new version is not a failure
+			bulkIndexer.respond(0, success(0), new BulkItemResponse(1, "index", new BulkItemResponse.Failure(
+					"index_v2", "post", "1", "VersionConflictEngineException[[index_v2][0] [post][1]]")), success(2),
+					success(3));
+			assertEquals(BulkIndexer.Result.SUCCESS, result.get());
+			assertTrue(listener.failed.isEmpty());
+
+		} finally {
+			IndexRebuild.update(MetaData.builder().build());
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package indexing;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.bulk.CoalescingBuffer;
+import play.test.UnitTest;
+
+/**
+ * Tests for last-write-wins coalescing of index events
+ */
+public class CoalescingBufferTest extends UnitTest {
+
+	private static ElasticSearchIndexEvent event(String type, String id, Type eventType) {
+		return new ElasticSearchIndexEvent("index", type, id, eventType, null);
+	}
+
+	@Test
+	public void testLatestEventWins() {
+		CoalescingBuffer buffer = new CoalescingBuffer(100, 1000);
+		buffer.add(event("post", "1", Type.INDEX));
+		buffer.add(event("post", "2", Type.INDEX));
+		buffer.add(event("post", "1", Type.INDEX));
+		ElasticSearchIndexEvent last = event("post", "1", Type.DELETE);
+		buffer.add(last);
+
+		assertEquals(2, buffer.size());
+		assertEquals(2, buffer.getCoalescedCount());
+
+		List<ElasticSearchIndexEvent> events = buffer.drain();
+		assertEquals(2, events.size());
+		assertEquals("2", events.get(0).getDocumentId());
+		assertSame(last, events.get(1));
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void testTypesAreKeptApart() {
+		CoalescingBuffer buffer = new CoalescingBuffer(100, 1000);
+		buffer.add(event("post", "1", Type.INDEX));
+		buffer.add(event("comment", "1", Type.INDEX));
+
+		assertEquals(2, buffer.size());
+		assertEquals(0, buffer.getCoalescedCount());
+	}
+
+	@Test
+	public void testFlushDue() {
+		CoalescingBuffer buffer = new CoalescingBuffer(2, 60000);
+		assertFalse(buffer.isFlushDue());
+
+		buffer.add(event("post", "1", Type.INDEX));
+		assertFalse(buffer.isFlushDue());
+		buffer.add(event("post", "1", Type.INDEX));
+		assertFalse(buffer.isFlushDue());
+		buffer.add(event("post", "2", Type.INDEX));
+		assertTrue(buffer.isFlushDue());
+
+		buffer.drain();
+		assertFalse(buffer.isFlushDue());
+
+		CoalescingBuffer expired = new CoalescingBuffer(100, 0);
+		expired.add(event("post", "1", Type.INDEX));
+		assertTrue(expired.isFlushDue());
+	}
+
+}
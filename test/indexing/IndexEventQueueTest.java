@@ -0,0 +1,190 @@
+package indexing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.queue.IndexEventQueue;
+import play.modules.elasticsearch.queue.OverflowPolicy;
+import play.test.UnitTest;
+
+/**
+ * Tests for the overflow policies of the index event queue
+ */
+public class IndexEventQueueTest extends UnitTest {
+
+	private static ElasticSearchIndexEvent event(String id, Type type) {
+		byte[] source = (type == Type.INDEX) ? ("{\"id\":\"" + id + "\"}").getBytes() : null;
+		return new ElasticSearchIndexEvent("index", "type", id, type, source);
+	}
+
+	private static String poll(IndexEventQueue queue) throws InterruptedException {
+		ElasticSearchIndexEvent event = queue.poll(0, TimeUnit.MILLISECONDS);
+		return event != null ? event.getDocumentId() : null;
+	}
+
+	private static File spillFile() throws IOException {
+		File file = File.createTempFile("index-event-queue", ".spill");
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void testFifo() throws InterruptedException {
+		IndexEventQueue queue = new IndexEventQueue(10, OverflowPolicy.BLOCK, null);
+		queue.put(event("1", Type.INDEX));
+		queue.put(event("2", Type.INDEX));
+
+		assertEquals(2, queue.size());
+		assertEquals("1", poll(queue));
+		assertEquals("2", poll(queue));
+		assertNull(poll(queue));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testDropOldest() throws InterruptedException {
+		IndexEventQueue queue = new IndexEventQueue(2, OverflowPolicy.DROP_OLDEST, null);
+		queue.put(event("1", Type.INDEX));
+		queue.put(event("2", Type.INDEX));
+		queue.put(event("3", Type.INDEX));
+
+		assertEquals(2, queue.size());
+		assertEquals(1, queue.getDroppedCount());
+		assertEquals("2", poll(queue));
+		assertEquals("3", poll(queue));
+	}
+
+	@Test
+	public void testCoalesce() throws InterruptedException {
+		IndexEventQueue queue = new IndexEventQueue(2, OverflowPolicy.COALESCE, null);
+		queue.put(event("1", Type.INDEX));
+		queue.put(event("2", Type.INDEX));
+		queue.put(event("1", Type.DELETE));
+
+		assertEquals(2, queue.size());
+		assertEquals(1, queue.getCoalescedCount());
+
+		ElasticSearchIndexEvent first = queue.poll(0, TimeUnit.MILLISECONDS);
+		assertEquals("1", first.getDocumentId());
+		assertEquals(Type.DELETE, first.getType());
+		assertEquals("2", poll(queue));
+	}
+
+	@Test
+	public void testSpillKeepsOrder() throws InterruptedException, IOException {
+		IndexEventQueue queue = new IndexEventQueue(2, OverflowPolicy.SPILL, spillFile());
+		for (int i = 1; i <= 5; i++) {
+			queue.put(event(String.valueOf(i), Type.INDEX));
+		}
+
+		assertEquals(5, queue.size());
+		assertEquals(3, queue.getSpilledSize());
+
+		// Room in memory does not let new events overtake spilled ones
+		assertEquals("1", poll(queue));
+		queue.put(event("6", Type.DELETE));
+		assertEquals(4, queue.getSpilledSize());
+
+		for (int i = 2; i <= 6; i++) {
+			assertEquals(String.valueOf(i), poll(queue));
+		}
+		assertTrue(queue.isEmpty());
+		assertEquals(4, queue.getSpilledCount());
+	}
+
+	@Test
+	public void testSpilledEventsAreDetached() throws InterruptedException, IOException {
+		IndexEventQueue queue = new IndexEventQueue(1, OverflowPolicy.SPILL, spillFile());
+		queue.put(event("1", Type.INDEX));
+		queue.put(event("2", Type.INDEX));
+		poll(queue);
+
+		ElasticSearchIndexEvent event = queue.poll(0, TimeUnit.MILLISECONDS);
+		assertTrue(event.isDetached());
+		assertEquals("index", event.getIndexName());
+		assertEquals("type", event.getTypeName());
+		assertEquals("{\"id\":\"2\"}", new String(event.getSource()));
+	}
+
+	@Test
+	public void testSpilledEventsSurviveRestart() throws InterruptedException, IOException {
+		File file = spillFile();
+		IndexEventQueue queue = new IndexEventQueue(1, OverflowPolicy.SPILL, file);
+		for (int i = 1; i <= 3; i++) {
+			queue.put(event(String.valueOf(i), Type.INDEX));
+		}
+
+		// The event held in memory is lost, the spilled ones come first after a restart
+		queue = new IndexEventQueue(1, OverflowPolicy.SPILL, file);
+		assertEquals(2, queue.getSpilledSize());
+		queue.put(event("4", Type.DELETE));
+		assertEquals("2", poll(queue));
+		assertEquals("3", poll(queue));
+		assertEquals("4", poll(queue));
+		assertTrue(queue.isEmpty());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testUnsyncedSpilledEventsSurviveRestart() throws InterruptedException, IOException {
+		File file = spillFile();
+		IndexEventQueue queue = new IndexEventQueue(1, OverflowPolicy.SPILL, file, Long.MAX_VALUE);
+		for (int i = 1; i <= 3; i++) {
+			queue.put(event(String.valueOf(i), Type.INDEX));
+		}
+
+		// Written to the file without waiting for a sync
+		queue = new IndexEventQueue(1, OverflowPolicy.SPILL, file, 0);
+		assertEquals(2, queue.getSpilledSize());
+		assertEquals("2", poll(queue));
+		assertEquals("3", poll(queue));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testPartlyWrittenSpilledEventIsCutOff() throws InterruptedException, IOException {
+		File file = spillFile();
+		IndexEventQueue queue = new IndexEventQueue(1, OverflowPolicy.SPILL, file);
+		queue.put(event("1", Type.INDEX));
+		queue.put(event("2", Type.INDEX));
+
+		// A crash in the middle of writing an event
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] { 1, 0, 5, 'i' });
+		out.close();
+
+		queue = new IndexEventQueue(1, OverflowPolicy.SPILL, file);
+		assertEquals(1, queue.getSpilledSize());
+		queue.put(event("3", Type.INDEX));
+		assertEquals("2", poll(queue));
+		assertEquals("3", poll(queue));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testWakeUpEndsWaitingPoll() throws InterruptedException {
+		final IndexEventQueue queue = new IndexEventQueue(10, OverflowPolicy.BLOCK, null);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				queue.wakeUp();
+			}
+		}.start();
+
+		long start = System.currentTimeMillis();
+		assertNull(queue.poll(10, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+}
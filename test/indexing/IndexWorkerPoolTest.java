@@ -0,0 +1,51 @@
+package indexing;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.IndexWorkerPool;
+import play.test.UnitTest;
+
+/**
+ * Tests for partitioning index events by document
+ */
+public class IndexWorkerPoolTest extends UnitTest {
+
+	@Test
+	public void testSameDocumentGetsSamePartition() {
+		ElasticSearchIndexEvent index = new ElasticSearchIndexEvent("index", "post", "42", Type.INDEX, "{}".getBytes());
+		ElasticSearchIndexEvent delete = new ElasticSearchIndexEvent("index", "post", "42", Type.DELETE, null);
+		assertEquals(index.getDocumentKey(), delete.getDocumentKey());
+
+		for (int partitions = 1; partitions <= 16; partitions++) {
+			int partition = IndexWorkerPool.partition(index.getDocumentKey(), partitions);
+			assertEquals(partition, IndexWorkerPool.partition(delete.getDocumentKey(), partitions));
+			assertEquals(partition, IndexWorkerPool.partition("post#42", partitions));
+		}
+	}
+
+	@Test
+	public void testNegativeHashCodeGetsValidPartition() {
+		String key = "polygenelubricants";
+		assertTrue(key.hashCode() < 0);
+
+		for (int partitions = 1; partitions <= 16; partitions++) {
+			int partition = IndexWorkerPool.partition(key, partitions);
+			assertTrue(partition >= 0);
+			assertTrue(partition < partitions);
+		}
+	}
+
+	@Test
+	public void testDocumentsAreSpreadOverPartitions() {
+		int[] counts = new int[4];
+		for (int i = 0; i < 1000; i++) {
+			counts[IndexWorkerPool.partition("post#" + i, counts.length)]++;
+		}
+		for (int count : counts) {
+			assertTrue(count > 100);
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package journal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import play.modules.elasticsearch.journal.Journal;
+import play.test.UnitTest;
+
+/**
+ * Tests for the on-disk journal
+ */
+public class JournalTest extends UnitTest {
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static List<String> readAll(Journal journal, Journal.Position from) throws IOException {
+		List<byte[]> records = new ArrayList<byte[]>();
+		journal.read(from, Integer.MAX_VALUE, records);
+		List<String> result = new ArrayList<String>();
+		for (byte[] record : records) {
+			result.add(new String(record));
+		}
+		return result;
+	}
+
+	@Test
+	public void testRecordsAreReadAcrossSegments() throws IOException {
+		Journal journal = new Journal(directory, 32);
+		for (int i = 0; i < 10; i++) {
+			journal.append(("record-" + i).getBytes());
+		}
+
+		List<String> records = readAll(journal, journal.getStartPosition());
+		assertEquals(10, records.size());
+		assertEquals("record-0", records.get(0));
+		assertEquals("record-9", records.get(9));
+		assertTrue(directory.list().length > 1);
+		journal.close();
+	}
+
+	@Test
+	public void testReadStopsAtMaxRecords() throws IOException {
+		Journal journal = new Journal(directory, 1024);
+		journal.append("1".getBytes());
+		journal.append("2".getBytes());
+		journal.append("3".getBytes());
+
+		List<byte[]> records = new ArrayList<byte[]>();
+		Journal.Position next = journal.read(journal.getStartPosition(), 2, records);
+		assertEquals(2, records.size());
+		assertEquals(1, readAll(journal, next).size());
+		assertEquals(journal.getSyncedPosition(), journal.read(journal.getSyncedPosition(), 10, records));
+		journal.close();
+	}
+
+	@Test
+	public void testPartlyWrittenRecordIsCutOff() throws IOException {
+		Journal journal = new Journal(directory, 1024);
+		journal.append("1".getBytes());
+		journal.append("2".getBytes());
+		journal.close();
+
+		// A crash in the middle of writing a record
+		File segment = directory.listFiles()[0];
+		FileOutputStream out = new FileOutputStream(segment, true);
+		out.write(new byte[] { 0, 0, 0, 10, 1, 2 });
+		out.close();
+
+		journal = new Journal(directory, 1024);
+		journal.append("3".getBytes());
+		List<String> records = readAll(journal, journal.getStartPosition());
+		assertEquals(3, records.size());
+		assertEquals("3", records.get(2));
+		journal.close();
+	}
+
+	@Test
+	public void testCheckpointDeletesProcessedSegments() throws IOException {
+		Journal journal = new Journal(directory, 32);
+		for (int i = 0; i < 10; i++) {
+			journal.append(("record-" + i).getBytes());
+		}
+		List<byte[]> records = new ArrayList<byte[]>();
+		Journal.Position checkpoint = journal.read(journal.loadCheckpoint(), 8, records);
+		journal.saveCheckpoint(checkpoint);
+		journal.close();
+
+		journal = new Journal(directory, 32);
+		assertEquals(checkpoint, journal.loadCheckpoint());
+		List<String> remaining = readAll(journal, journal.loadCheckpoint());
+		assertEquals(2, remaining.size());
+		assertEquals("record-8", remaining.get(0));
+		assertEquals(checkpoint.getSegmentId(), journal.getStartPosition().getSegmentId());
+		journal.close();
+	}
+
+	@Test
+	public void testShortCheckpointReplaysFromStart() throws IOException {
+		Journal journal = new Journal(directory, 1024);
+		journal.append("1".getBytes());
+		journal.append("2".getBytes());
+		journal.saveCheckpoint(journal.getSyncedPosition());
+		journal.close();
+
+		// A crash while the checkpoint was written
+		FileOutputStream out = new FileOutputStream(new File(directory, "checkpoint"));
+		out.write(new byte[] { 0, 0, 0, 0, 0 });
+		out.close();
+
+		journal = new Journal(directory, 1024);
+		assertEquals(journal.getStartPosition(), journal.loadCheckpoint());
+		assertEquals(2, readAll(journal, journal.loadCheckpoint()).size());
+		journal.close();
+	}
+
+	@Test
+	public void testCheckpointBeingRenamedIsFound() throws IOException {
+		Journal journal = new Journal(directory, 1024);
+		journal.append("1".getBytes());
+		journal.append("2".getBytes());
+		Journal.Position checkpoint = journal.getSyncedPosition();
+		journal.saveCheckpoint(checkpoint);
+		journal.close();
+
+		// The checkpoint was deleted before the new one was renamed
+		assertTrue(new File(directory, "checkpoint").renameTo(new File(directory, "checkpoint.tmp")));
+
+		journal = new Journal(directory, 1024);
+		assertEquals(checkpoint, journal.loadCheckpoint());
+		journal.close();
+	}
+
+	@Test
+	public void testConcurrentAppends() throws Exception {
+		final Journal journal = new Journal(directory, 4096);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 100; i++) {
+							journal.append("record".getBytes());
+						}
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(400, readAll(journal, journal.getStartPosition()).size());
+		journal.close();
+	}
+
+}
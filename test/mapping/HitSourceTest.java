@@ -0,0 +1,158 @@
+package mapping;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.ElasticSearch;
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.mapping.ModelMapper;
+import play.modules.elasticsearch.search.SearchResults;
+import play.modules.elasticsearch.transformer.HitSource;
+import play.modules.elasticsearch.transformer.MapperTransformer;
+import play.modules.elasticsearch.transformer.SimpleTransformer;
+
+/**
+ * Test for reading the requested fields of a hit instead of its source
+ */
+public class HitSourceTest extends MappingTest {
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class Post extends Model {
+		public String title;
+		public String body;
+
+		@ElasticSearchEmbedded
+		public Author author;
+	}
+
+	public static class Author {
+		public String name;
+		public String email;
+	}
+
+	/** The whole document, as indexed */
+	private static final String SOURCE = "{\"title\":\"Title\",\"body\":\"A long body\","
+			+ "\"author.name\":\"Jane\",\"author.email\":\"jane@example.com\"}";
+
+	/**
+	 * Uses a mapper built for the test instead of the plugin's mappers
+	 */
+	private static class TestMapperTransformer extends MapperTransformer<Post> {
+		@Override
+		protected ModelMapper<Post> getMapper(Class<Post> clazz) {
+			return HitSourceTest.getMapper(clazz);
+		}
+	}
+
+	private static InternalSearchHit hit(Map<String, Object> partial) {
+		Map<String, SearchHitField> fields = new HashMap<String, SearchHitField>();
+		if (partial != null) {
+			fields.put(HitSource.PARTIAL_FIELD, new InternalSearchHitField(HitSource.PARTIAL_FIELD, Collections
+					.<Object> singletonList(partial)));
+		}
+		return new InternalSearchHit(0, "1", "post", SOURCE.getBytes(), fields);
+	}
+
+	private static SearchResponse response(InternalSearchHit hit) {
+		InternalSearchHits hits = new InternalSearchHits(new InternalSearchHit[] { hit }, 1, 1);
+		return new SearchResponse(new InternalSearchResponse(hits, null, false), null, 1, 1, 1,
+				new ShardSearchFailure[0]);
+	}
+
+	/**
+	 * The partial field of a search for title and author.*
+	 */
+	private static Map<String, Object> partial() {
+		Map<String, Object> partial = new LinkedHashMap<String, Object>();
+		partial.put("title", "Title");
+		partial.put("author.name", "Jane");
+		partial.put("author.email", "jane@example.com");
+		return partial;
+	}
+
+	@Test
+	public void testPartialFieldIsPreferred() {
+		Map<String, Object> map = HitSource.get(hit(partial()));
+		assertEquals(partial(), map);
+		assertFalse(map.containsKey("body"));
+	}
+
+	@Test
+	public void testSourceWithoutPartialField() {
+		Map<String, Object> map = HitSource.get(hit(null));
+		assertEquals("A long body", map.get("body"));
+		assertEquals(4, map.size());
+	}
+
+	@Test
+	public void testMapperTransformerBindsPartialFields() {
+		SearchResults<Post> results = new TestMapperTransformer().toSearchResults(response(hit(partial())),
+				Post.class);
+		assertEquals(1, results.objects.size());
+		Post post = results.objects.get(0);
+		assertEquals("Title", post.title);
+		assertNull(post.body);
+		assertNotNull(post.author);
+		assertEquals("Jane", post.author.name);
+		assertEquals("jane@example.com", post.author.email);
+	}
+
+	@Test
+	public void testMapperTransformerBindsSource() {
+		Post post = new TestMapperTransformer().toSearchResults(response(hit(null)), Post.class).objects.get(0);
+		assertEquals("Title", post.title);
+		assertEquals("A long body", post.body);
+		assertEquals("Jane", post.author.name);
+	}
+
+	@Test
+	public void testMapperTransformerWithoutEmbeddedFields() {
+		Map<String, Object> partial = new HashMap<String, Object>();
+		partial.put("title", "Title");
+		Post post = new TestMapperTransformer().toSearchResults(response(hit(partial)), Post.class).objects.get(0);
+		assertEquals("Title", post.title);
+		assertNull(post.author);
+	}
+
+	@Test
+	public void testSimpleTransformerBindsPartialFields() {
+		Map<String, Object> partial = new HashMap<String, Object>();
+		partial.put("title", "Title");
+		Post post = new SimpleTransformer<Post>().toSearchResults(response(hit(partial)), Post.class).objects
+				.get(0);
+		assertEquals("Title", post.title);
+		assertNull(post.body);
+	}
+
+	@Test
+	public void testFieldsCannotBeHydrated() {
+		try {
+			ElasticSearch.query(QueryBuilders.matchAllQuery(), Post.class).fields("title").hydrate(true);
+			fail("Hydrated models are loaded whole");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			ElasticSearch.query(QueryBuilders.matchAllQuery(), Post.class).hydrate(true).fields("title");
+			fail("Hydrated models are loaded whole");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
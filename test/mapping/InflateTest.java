@@ -0,0 +1,152 @@
+package mapping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded;
+import play.modules.elasticsearch.annotations.ElasticSearchEmbedded.Mode;
+import play.modules.elasticsearch.annotations.ElasticSearchable;
+import play.modules.elasticsearch.mapping.ModelMapper;
+
+/**
+ * Test for inflating models from a map and from a parser
+ */
+public class InflateTest extends MappingTest {
+
+	@SuppressWarnings("serial")
+	@ElasticSearchable
+	public static class TestModel extends Model {
+		public String name;
+		public Integer count;
+		public Long total;
+		public Double ratio;
+		public Boolean active;
+		public Date created;
+		public List<String> tags = new ArrayList<String>();
+
+		@ElasticSearchEmbedded
+		public Embedded embedded;
+
+		@ElasticSearchEmbedded(mode = Mode.object)
+		public Embedded object;
+
+		@ElasticSearchEmbedded
+		public List<Embedded> items = new ArrayList<Embedded>();
+	}
+
+	public static class Embedded {
+		public String name;
+		public Integer count;
+	}
+
+	private static TestModel createTestModel() {
+		TestModel model = new TestModel();
+		model.name = "name";
+		model.count = 3;
+		model.total = 5000000000L;
+		model.ratio = 0.5;
+		model.active = true;
+		model.created = new Date(1234567890000L);
+		model.tags.add("a");
+		model.tags.add("b");
+		model.embedded = new Embedded();
+		model.embedded.name = "embedded";
+		model.object = new Embedded();
+		model.object.count = 7;
+		Embedded item = new Embedded();
+		item.name = "item";
+		item.count = 1;
+		model.items.add(item);
+
+		return model;
+	}
+
+	private static XContentBuilder documentFor(ModelMapper<TestModel> mapper, TestModel model) throws IOException {
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		mapper.addModel(model, builder);
+
+		return builder;
+	}
+
+	private static void assertInflated(TestModel model) {
+		assertEquals("name", model.name);
+		assertEquals(Integer.valueOf(3), model.count);
+		assertEquals(Long.valueOf(5000000000L), model.total);
+		assertEquals(Double.valueOf(0.5), model.ratio);
+		assertEquals(Boolean.TRUE, model.active);
+		assertEquals(new Date(1234567890000L), model.created);
+		assertEquals(2, model.tags.size());
+		assertEquals("b", model.tags.get(1));
+		assertEquals("embedded", model.embedded.name);
+		assertNull(model.embedded.count);
+		assertEquals(Integer.valueOf(7), model.object.count);
+		assertEquals(1, model.items.size());
+		assertEquals("item", model.items.get(0).name);
+	}
+
+	/**
+	 * Tests if a model is inflated from the map of its document
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCreateModelFromMap() throws IOException {
+		ModelMapper<TestModel> mapper = getMapper(TestModel.class);
+		XContentBuilder document = documentFor(mapper, createTestModel());
+
+		Map<String, Object> map = XContentHelper.convertToMap(document.bytes(), false).v2();
+		assertInflated(mapper.createModel(map));
+	}
+
+	/**
+	 * Tests if a model is inflated from a parser the same way as from a map
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCreateModelFromParser() throws IOException {
+		ModelMapper<TestModel> mapper = getMapper(TestModel.class);
+		XContentBuilder document = documentFor(mapper, createTestModel());
+
+		XContentParser parser = XContentHelper.createParser(document.bytes());
+		assertInflated(mapper.createModel(parser));
+		parser.close();
+	}
+
+	/**
+	 * Tests if unknown and missing values are skipped by the parser
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCreateModelFromParserSkipsUnknownValues() throws IOException {
+		ModelMapper<TestModel> mapper = getMapper(TestModel.class);
+		XContentBuilder document = XContentFactory.jsonBuilder();
+		document.startObject();
+		document.startObject("unknown").field("name", "unknown").startArray("list").value(1).endArray().endObject();
+		document.field("name", "name");
+		document.nullField("count");
+		document.endObject();
+
+		XContentParser parser = XContentHelper.createParser(document.bytes());
+		TestModel model = mapper.createModel(parser);
+		parser.close();
+
+		assertEquals("name", model.name);
+		assertNull(model.count);
+		assertNull(model.embedded);
+		assertNull(model.object);
+		assertTrue(model.items.isEmpty());
+	}
+
+}
@@ -2,6 +2,8 @@ package mapping;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.junit.Test;
@@ -126,4 +128,27 @@ public class SimpleMappingTest extends MappingTest {
 		assertEquals(mapping.string(), generatedMapping.string());
 	}
 
+	@Test
+	public void testSimpleInflate() {
+		ModelMapper<TestModel> mapper = getMapper(TestModel.class);
+
+		// Values as read from a JSON document
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("_string", "text");
+		map.put("_integer1", 1);
+		map.put("_long1", 2);
+		map.put("_long2", 3L);
+		map.put("_double1", 4);
+		map.put("_boolean2", true);
+
+		TestModel model = mapper.createModel(map);
+		assertEquals("text", model._string);
+		assertEquals(Integer.valueOf(1), model._integer1);
+		assertEquals(Long.valueOf(2), model._long1);
+		assertEquals(3L, model._long2);
+		assertEquals(Double.valueOf(4), model._double1);
+		assertTrue(model._boolean2);
+		assertNull(model._short1);
+	}
+
 }
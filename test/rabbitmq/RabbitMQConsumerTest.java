@@ -0,0 +1,184 @@
+package rabbitmq;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.rabbitmq.RabbitMQConsumer;
+import play.modules.elasticsearch.rabbitmq.RabbitMQMessage;
+import play.test.UnitTest;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Tests for the batching of the RabbitMQ consumer, against a fake broker
+ */
+public class RabbitMQConsumerTest extends UnitTest {
+
+	/**
+	 * A channel which records the acknowledgements
+	 */
+	private static class FakeChannel implements InvocationHandler {
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		volatile Consumer consumer;
+
+		Channel proxy() {
+			return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Channel.class },
+					this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("isOpen")) {
+				return true;
+			} else if (name.equals("basicConsume")) {
+				consumer = (Consumer) args[args.length - 1];
+				return "consumer";
+			} else if (name.startsWith("basic")) {
+				StringBuilder call = new StringBuilder(name);
+				for (Object arg : args) {
+					call.append(' ').append(arg);
+				}
+				calls.add(call.toString());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A consumer with one fake channel, recording the indexed batches
+	 */
+	private static class FakeConsumer extends RabbitMQConsumer {
+		final FakeChannel channel = new FakeChannel();
+		final List<List<ElasticSearchIndexEvent>> batches = Collections
+				.synchronizedList(new ArrayList<List<ElasticSearchIndexEvent>>());
+		volatile boolean available = true;
+
+		FakeConsumer(int batchSize, long batchInterval) {
+			super("queue", 1, 10, batchSize, batchInterval, 10);
+		}
+
+		@Override
+		protected Connection newConnection() {
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("isOpen")) {
+								return true;
+							} else if (method.getName().equals("createChannel")) {
+								return channel.proxy();
+							}
+							return null;
+						}
+					});
+		}
+
+		@Override
+		protected void declare(Channel channel) {
+			// Nothing to declare
+		}
+
+		@Override
+		protected boolean index(List<ElasticSearchIndexEvent> events) {
+			batches.add(new ArrayList<ElasticSearchIndexEvent>(events));
+			return available;
+		}
+
+		void deliver(long deliveryTag, byte[] body) throws Exception {
+			while (channel.consumer == null) {
+				Thread.sleep(5);
+			}
+			channel.consumer.handleDelivery("consumer", new Envelope(deliveryTag, false, "queue", "queue"),
+					new AMQP.BasicProperties(), body);
+		}
+
+		void deliver(long deliveryTag, String documentId) throws Exception {
+			deliver(deliveryTag, RabbitMQMessage.encode(new ElasticSearchIndexEvent("index", "type", documentId,
+					Type.DELETE, null), true));
+		}
+	}
+
+	private static void awaitCall(FakeChannel channel, String call) throws InterruptedException {
+		for (int i = 0; i < 200 && !channel.calls.contains(call); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(channel.calls + " contains " + call, channel.calls.contains(call));
+	}
+
+	@Test
+	public void testFullBatchIsAcknowledgedAtOnce() throws Exception {
+		FakeConsumer consumer = new FakeConsumer(3, 60000);
+		consumer.start();
+		try {
+			consumer.deliver(1, "1");
+			consumer.deliver(2, "2");
+			consumer.deliver(3, "3");
+			awaitCall(consumer.channel, "basicAck 3 true");
+
+			assertTrue(consumer.channel.calls.contains("basicQos 10"));
+			assertEquals(1, consumer.batches.size());
+			assertEquals(3, consumer.batches.get(0).size());
+			assertEquals("3", consumer.batches.get(0).get(2).getDocumentId());
+		} finally {
+			consumer.stop();
+		}
+	}
+
+	@Test
+	public void testPartialBatchIsIndexedAfterInterval() throws Exception {
+		FakeConsumer consumer = new FakeConsumer(100, 50);
+		consumer.start();
+		try {
+			consumer.deliver(1, "1");
+			consumer.deliver(2, "2");
+			awaitCall(consumer.channel, "basicAck 2 true");
+			assertEquals(2, consumer.batches.get(0).size());
+		} finally {
+			consumer.stop();
+		}
+	}
+
+	@Test
+	public void testFailedBatchIsReturnedToQueue() throws Exception {
+		FakeConsumer consumer = new FakeConsumer(2, 60000);
+		consumer.available = false;
+		consumer.start();
+		try {
+			consumer.deliver(1, "1");
+			consumer.deliver(2, "2");
+			awaitCall(consumer.channel, "basicNack 2 true true");
+			assertFalse(consumer.channel.calls.contains("basicAck 2 true"));
+		} finally {
+			consumer.stop();
+		}
+	}
+
+	@Test
+	public void testUnreadableMessageIsRejected() throws Exception {
+		FakeConsumer consumer = new FakeConsumer(1, 60000);
+		consumer.start();
+		try {
+			consumer.deliver(1, new byte[] { 99 });
+			consumer.deliver(2, "2");
+			awaitCall(consumer.channel, "basicAck 2 true");
+			assertTrue(consumer.channel.calls.contains("basicReject 1 false"));
+			assertEquals(1, consumer.batches.size());
+		} finally {
+			consumer.stop();
+		}
+	}
+
+}
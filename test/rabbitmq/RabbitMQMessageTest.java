@@ -0,0 +1,57 @@
+package rabbitmq;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.ElasticSearchIndexEvent;
+import play.modules.elasticsearch.ElasticSearchIndexEvent.Type;
+import play.modules.elasticsearch.rabbitmq.RabbitMQMessage;
+import play.test.UnitTest;
+
+/**
+ * Tests for the RabbitMQ message format
+ */
+public class RabbitMQMessageTest extends UnitTest {
+
+	@Test
+	public void testDocumentIsIncluded() throws IOException {
+		ElasticSearchIndexEvent event = new ElasticSearchIndexEvent("index", "type", "1", Type.INDEX,
+				"{\"id\":\"1\"}".getBytes());
+
+		ElasticSearchIndexEvent decoded = RabbitMQMessage.decode(RabbitMQMessage.encode(event, true));
+		assertEquals(Type.INDEX, decoded.getType());
+		assertEquals("index", decoded.getIndexName());
+		assertEquals("type", decoded.getTypeName());
+		assertEquals("1", decoded.getDocumentId());
+		assertEquals("{\"id\":\"1\"}", new String(decoded.getSource()));
+		assertFalse(decoded.isReference());
+	}
+
+	@Test
+	public void testReferenceOnly() throws IOException {
+		ElasticSearchIndexEvent event = new ElasticSearchIndexEvent("index", "type", "1", Type.INDEX,
+				"{\"id\":\"1\"}".getBytes());
+
+		byte[] body = RabbitMQMessage.encode(event, false);
+		ElasticSearchIndexEvent decoded = RabbitMQMessage.decode(body);
+		assertTrue(decoded.isReference());
+		assertEquals("1", decoded.getDocumentId());
+		assertTrue(body.length < RabbitMQMessage.encode(event, true).length);
+	}
+
+	@Test
+	public void testDeleteIsNotAReference() throws IOException {
+		ElasticSearchIndexEvent event = new ElasticSearchIndexEvent("index", "type", "1", Type.DELETE, null);
+
+		ElasticSearchIndexEvent decoded = RabbitMQMessage.decode(RabbitMQMessage.encode(event, false));
+		assertEquals(Type.DELETE, decoded.getType());
+		assertFalse(decoded.isReference());
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownFormat() throws IOException {
+		RabbitMQMessage.decode(new byte[] { 99, 0, 0 });
+	}
+
+}
@@ -0,0 +1,140 @@
+package rabbitmq;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.rabbitmq.RabbitMQPublisher;
+import play.test.UnitTest;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+
+/**
+ * Tests for the confirm tracking of the RabbitMQ publisher, against a fake
+ * broker
+ */
+public class RabbitMQPublisherTest extends UnitTest {
+
+	/**
+	 * A channel which records the published messages
+	 */
+	private static class FakeChannel implements InvocationHandler {
+		final List<String> published = new ArrayList<String>();
+		ConfirmListener listener;
+		boolean open = true;
+		long nextSeqNo = 1;
+
+		Channel proxy() {
+			return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Channel.class },
+					this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("isOpen")) {
+				return open;
+			} else if (name.equals("getNextPublishSeqNo")) {
+				return nextSeqNo;
+			} else if (name.equals("basicPublish")) {
+				if (!open) {
+					throw new IOException("closed");
+				}
+				published.add(new String((byte[]) args[args.length - 1]));
+				nextSeqNo++;
+			} else if (name.equals("setConfirmListener")) {
+				listener = (ConfirmListener) args[0];
+			} else if (name.equals("abort") || name.equals("close")) {
+				open = false;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A publisher whose connection hands out fake channels
+	 */
+	private static class FakePublisher extends RabbitMQPublisher {
+		final List<FakeChannel> channels = new ArrayList<FakeChannel>();
+
+		FakePublisher() {
+			super("exchange", "key", 1, 10, 0);
+		}
+
+		@Override
+		protected Connection newConnection() {
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("isOpen")) {
+								return true;
+							} else if (method.getName().equals("createChannel")) {
+								FakeChannel channel = new FakeChannel();
+								channels.add(channel);
+								return channel.proxy();
+							}
+							return null;
+						}
+					});
+		}
+
+		@Override
+		protected void declare(Channel channel) {
+			// Nothing to declare
+		}
+	}
+
+	@Test
+	public void testConfirmedMessagesAreReleased() throws Exception {
+		FakePublisher publisher = new FakePublisher();
+		publisher.publish("1".getBytes());
+		publisher.publish("2".getBytes());
+		publisher.publish("3".getBytes());
+		assertEquals(3, publisher.getUnconfirmedCount());
+
+		FakeChannel channel = publisher.channels.get(0);
+		channel.listener.handleAck(2, true);
+		assertEquals(1, publisher.getUnconfirmedCount());
+		channel.listener.handleAck(3, false);
+		assertEquals(0, publisher.getUnconfirmedCount());
+		assertTrue(publisher.awaitConfirms(100));
+	}
+
+	@Test
+	public void testUnconfirmedMessagesArePublishedAgain() throws Exception {
+		FakePublisher publisher = new FakePublisher();
+		publisher.publish("1".getBytes());
+		publisher.publish("2".getBytes());
+		publisher.channels.get(0).listener.handleAck(1, false);
+
+		// The channel is lost before confirming the second message
+		publisher.channels.get(0).open = false;
+		publisher.publish("3".getBytes());
+
+		assertEquals(2, publisher.channels.size());
+		List<String> republished = publisher.channels.get(1).published;
+		assertEquals(2, republished.size());
+		assertEquals("2", republished.get(0));
+		assertEquals("3", republished.get(1));
+		assertEquals(2, publisher.getUnconfirmedCount());
+	}
+
+	@Test
+	public void testNackedMessagesAreCounted() throws Exception {
+		FakePublisher publisher = new FakePublisher();
+		publisher.publish("1".getBytes());
+		publisher.channels.get(0).listener.handleNack(1, false);
+
+		assertEquals(0, publisher.getUnconfirmedCount());
+		assertEquals(1, publisher.getNackedCount());
+	}
+
+}
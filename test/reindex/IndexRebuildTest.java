@@ -0,0 +1,107 @@
+package reindex;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+import play.modules.elasticsearch.reindex.IndexRebuild;
+import play.modules.elasticsearch.reindex.ReindexException;
+import play.test.UnitTest;
+
+/**
+ * Tests for the versions and markers of index rebuilds
+ */
+public class IndexRebuildTest extends UnitTest {
+
+	static IndexMetaData.Builder index(String name, String... aliases) {
+		IndexMetaData.Builder index = IndexMetaData.builder(name).settings(
+				ImmutableSettings.settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas",
+						0));
+		for (String alias : aliases) {
+			index.putAlias(AliasMetaData.builder(alias));
+		}
+		return index;
+	}
+
+	static MetaData metaData(IndexMetaData.Builder... indices) {
+		MetaData.Builder metaData = MetaData.builder();
+		for (IndexMetaData.Builder index : indices) {
+			metaData.put(index);
+		}
+		return metaData.build();
+	}
+
+	@Test
+	public void testNextVersion() {
+		assertEquals(1, IndexRebuild.getNextVersion(metaData(), "posts"));
+		assertEquals(1, IndexRebuild.getNextVersion(metaData(index("posts")), "posts"));
+		assertEquals(3, IndexRebuild.getNextVersion(metaData(index("posts_v2", "posts"), index("posts_v1")), "posts"));
+		assertEquals(10, IndexRebuild.getNextVersion(metaData(index("posts_v9", "posts")), "posts"));
+
+		// Other indices do not count
+		assertEquals(1, IndexRebuild.getNextVersion(metaData(index("posts_archive_v4"), index("post_v5")), "posts"));
+	}
+
+	@Test
+	public void testPreviousIndicesOfAlias() {
+		MetaData metaData = metaData(index("posts_v2", "posts"), index("posts_v3", "posts"), index("users"));
+		assertEquals(Arrays.asList("posts_v2", "posts_v3"), IndexRebuild.getPreviousIndices(metaData, "posts"));
+	}
+
+	@Test
+	public void testIndexWhichIsNotAnAliasIsRefused() {
+		// Created before indices were versioned
+		MetaData metaData = metaData(index("posts"), index("users"));
+		try {
+			IndexRebuild.checkAlias(metaData, "posts");
+			fail("The index cannot be replaced without downtime");
+		} catch (ReindexException e) {
+			assertTrue(e.getMessage().contains("posts_v1"));
+		}
+		assertTrue(IndexRebuild.getPreviousIndices(metaData, "posts").isEmpty());
+	}
+
+	@Test
+	public void testAliasAndNewIndexCanBeRebuilt() {
+		IndexRebuild.checkAlias(metaData(index("posts_v1", "posts")), "posts");
+		IndexRebuild.checkAlias(metaData(index("users")), "posts");
+	}
+
+	@Test
+	public void testVersionName() {
+		assertEquals("posts_v1", IndexRebuild.getVersionName("posts", 1));
+		assertEquals(2, IndexRebuild.getNextVersion(metaData(index(IndexRebuild.getVersionName("posts", 1),
+				"posts")), "posts"));
+	}
+
+	@Test
+	public void testNoPreviousIndices() {
+		assertTrue(IndexRebuild.getPreviousIndices(metaData(index("users")), "posts").isEmpty());
+	}
+
+	@Test
+	public void testRebuildIndicesFromMarkers() {
+		MetaData metaData = metaData(index("posts_v2", "posts"), index("posts_v3", "posts_rebuild"),
+				index("users", "people"));
+		Map<String, String> rebuildIndices = IndexRebuild.getRebuildIndices(metaData);
+		assertEquals(1, rebuildIndices.size());
+		assertEquals("posts_v3", rebuildIndices.get("posts"));
+	}
+
+	@Test
+	public void testVersionsIncrease() {
+		long last = 0;
+		for (int i = 0; i < 1000; i++) {
+			long version = IndexRebuild.nextVersion();
+			assertTrue(version > last);
+			last = version;
+		}
+		assertTrue(last >= System.currentTimeMillis() * 1000 - 1000000);
+	}
+
+}
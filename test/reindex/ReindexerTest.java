@@ -0,0 +1,134 @@
+package reindex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.reindex.Reindexer;
+import play.test.UnitTest;
+
+/**
+ * Tests for reading the ids in chunks and indexing them in parallel
+ */
+public class ReindexerTest extends UnitTest {
+
+	@SuppressWarnings("serial")
+	public static class TestModel extends Model {
+	}
+
+	/**
+	 * Reads the ids from a list and records the chunks
+	 */
+	private static class FakeReindexer extends Reindexer<TestModel> {
+		final List<Long> table = new ArrayList<Long>();
+		final List<Object> lastIds = Collections.synchronizedList(new ArrayList<Object>());
+		final List<List<Object>> indexed = Collections.synchronizedList(new ArrayList<List<Object>>());
+		final AtomicInteger reads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		FakeReindexer(int workers, int chunkSize, int rows) {
+			super(TestModel.class, workers, chunkSize);
+			for (long id = 1; id <= rows; id++) {
+				table.add(id);
+			}
+		}
+
+		List<Future<Integer>> submit(ExecutorService executor) throws InterruptedException {
+			return submitChunks(executor);
+		}
+
+		@Override
+		protected List<Object> readIds(Object lastId, int max) {
+			reads.incrementAndGet();
+			lastIds.add(lastId);
+			List<Object> ids = new ArrayList<Object>();
+			for (Long id : table) {
+				if ((lastId == null || id > (Long) lastId) && ids.size() < max) {
+					ids.add(id);
+				}
+			}
+			return ids;
+		}
+
+		@Override
+		protected Integer indexChunk(List<Object> ids) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				return null;
+			}
+			indexed.add(ids);
+			return ids.size();
+		}
+	}
+
+	@Test
+	public void testIdsAreReadInKeysetChunks() throws Exception {
+		FakeReindexer reindexer = new FakeReindexer(2, 3, 10);
+		reindexer.release.countDown();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<Integer>> chunks = reindexer.submit(executor);
+
+			assertEquals(4, chunks.size());
+			int count = 0;
+			for (Future<Integer> chunk : chunks) {
+				count += chunk.get();
+			}
+			assertEquals(10, count);
+
+			// Each chunk starts after the last id of the previous one, the short chunk is the last
+			assertEquals(4, reindexer.reads.get());
+			assertEquals(null, reindexer.lastIds.get(0));
+			assertEquals(3L, reindexer.lastIds.get(1));
+			assertEquals(6L, reindexer.lastIds.get(2));
+			assertEquals(9L, reindexer.lastIds.get(3));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testReadingWaitsForWorkers() throws Exception {
+		final FakeReindexer reindexer = new FakeReindexer(1, 2, 20);
+		final ExecutorService executor = Executors.newFixedThreadPool(1);
+		final List<Future<Integer>> chunks = new ArrayList<Future<Integer>>();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					chunks.addAll(reindexer.submit(executor));
+				} catch (InterruptedException e) {
+					// ignore
+				}
+			}
+		};
+		try {
+			reader.start();
+			Thread.sleep(200);
+
+			// Two chunks per worker are pending, the reader waits with the next one
+			assertEquals(3, reindexer.reads.get());
+			assertTrue(reindexer.indexed.isEmpty());
+
+			reindexer.release.countDown();
+			reader.join(TimeUnit.SECONDS.toMillis(5));
+			assertEquals(10, chunks.size());
+			for (Future<Integer> chunk : chunks) {
+				assertEquals(Integer.valueOf(2), chunk.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
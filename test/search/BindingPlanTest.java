@@ -0,0 +1,63 @@
+package search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.transformer.BindingPlan;
+import play.test.UnitTest;
+
+/**
+ * Tests for binding the source of hits to models
+ */
+public class BindingPlanTest extends UnitTest {
+
+	public static class ParentModel extends Model {
+		public String name;
+		public String label;
+	}
+
+	public static class TestModel extends ParentModel {
+		public String Name;
+		public Long total;
+	}
+
+	@Test
+	public void testValuesAreConvertedAndBound() {
+		Map<String, Object> source = new HashMap<String, Object>();
+		source.put("id", 3);
+		source.put("total", 5);
+		source.put("label", "label");
+		source.put("unknown", "unknown");
+
+		TestModel model = new TestModel();
+		BindingPlan.forClass(TestModel.class).bind(model, source);
+
+		assertEquals(Long.valueOf(3), model.id);
+		assertEquals(Long.valueOf(5), model.total);
+		assertEquals("label", model.label);
+	}
+
+	@Test
+	public void testNamesMatchFirstFieldIgnoringCase() {
+		Map<String, Object> source = new HashMap<String, Object>();
+		source.put("name", "name");
+		source.put("TOTAL", 5L);
+
+		TestModel model = new TestModel();
+		BindingPlan.forClass(TestModel.class).bind(model, source);
+
+		// The field of the subclass comes first
+		assertEquals("name", model.Name);
+		assertNull(((ParentModel) model).name);
+		assertEquals(Long.valueOf(5), model.total);
+	}
+
+	@Test
+	public void testPlanIsBuiltOnce() {
+		assertSame(BindingPlan.forClass(TestModel.class), BindingPlan.forClass(TestModel.class));
+	}
+
+}
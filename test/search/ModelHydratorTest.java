@@ -0,0 +1,196 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.exceptions.UnexpectedException;
+import play.modules.elasticsearch.transformer.ModelHydrator;
+import play.test.UnitTest;
+
+/**
+ * Tests for loading the models of search hits in chunks
+ */
+public class ModelHydratorTest extends UnitTest {
+
+	@SuppressWarnings("serial")
+	public static class TestModel extends Model {
+		TestModel(long id) {
+			this.id = id;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class OtherModel extends Model {
+	}
+
+	/**
+	 * Serves the models from a cache and a table of ids and records the
+	 * queries
+	 */
+	static class FakeHydrator extends ModelHydrator {
+		final Set<Long> cached = new HashSet<Long>();
+		final Set<Long> table = new HashSet<Long>();
+		final List<List<Object>> queries = new ArrayList<List<Object>>();
+
+		FakeHydrator(int chunkSize) {
+			this(chunkSize, 0);
+		}
+
+		FakeHydrator(int chunkSize, int threads) {
+			super(chunkSize, threads);
+		}
+
+		@Override
+		protected <T extends play.db.Model> void hydrateInTransaction(Class<T> clazz, List<Object> ids,
+				List<Integer> positions, play.db.Model[] results) {
+			hydrate(clazz, ids, positions, results);
+		}
+
+		@Override
+		protected <T extends play.db.Model> T findCached(Class<T> clazz, Object id) {
+			return cached.contains(id) ? clazz.cast(new TestModel((Long) id)) : null;
+		}
+
+		@Override
+		protected <T extends play.db.Model> List<T> load(Class<T> clazz, List<Object> ids) {
+			if (clazz == OtherModel.class) {
+				throw new IllegalStateException("Connection refused");
+			}
+			queries.add(ids);
+			// The database returns the rows in its own order
+			List<T> models = new ArrayList<T>();
+			for (Object id : new HashSet<Object>(ids)) {
+				if (table.contains(id)) {
+					models.add(clazz.cast(new TestModel((Long) id)));
+				}
+			}
+			return models;
+		}
+	}
+
+	private static List<Object> ids(long... ids) {
+		List<Object> list = new ArrayList<Object>();
+		for (long id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+
+	private static List<Integer> positions(int count) {
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			positions.add(i);
+		}
+		return positions;
+	}
+
+	private static Long id(play.db.Model model) {
+		return model != null ? ((TestModel) model).id : null;
+	}
+
+	@Test
+	public void testChunksArePaddedToPowerOfTwo() {
+		FakeHydrator hydrator = new FakeHydrator(8);
+		hydrator.hydrate(TestModel.class, ids(1, 2, 3, 4, 5), positions(5), new play.db.Model[5]);
+		assertEquals(1, hydrator.queries.size());
+		assertEquals(ids(1, 2, 3, 4, 5, 5, 5, 5), hydrator.queries.get(0));
+
+		hydrator = new FakeHydrator(8);
+		hydrator.hydrate(TestModel.class, ids(1, 2, 3), positions(3), new play.db.Model[3]);
+		assertEquals(ids(1, 2, 3, 3), hydrator.queries.get(0));
+
+		hydrator = new FakeHydrator(8);
+		hydrator.hydrate(TestModel.class, ids(1), positions(1), new play.db.Model[1]);
+		assertEquals(ids(1), hydrator.queries.get(0));
+	}
+
+	@Test
+	public void testChunksAreNotPaddedBeyondChunkSize() {
+		FakeHydrator hydrator = new FakeHydrator(6);
+		hydrator.hydrate(TestModel.class, ids(1, 2, 3, 4, 5, 6, 7, 8, 9), positions(9), new play.db.Model[9]);
+		assertEquals(2, hydrator.queries.size());
+		assertEquals(ids(1, 2, 3, 4, 5, 6), hydrator.queries.get(0));
+		assertEquals(ids(7, 8, 9, 9), hydrator.queries.get(1));
+	}
+
+	@Test
+	public void testModelsAreAtTheirHitPositions() {
+		FakeHydrator hydrator = new FakeHydrator(4);
+		hydrator.cached.addAll(Arrays.asList(7L, 3L));
+		hydrator.table.addAll(Arrays.asList(1L, 2L, 5L, 9L));
+
+		// Hits of another class are at positions 1 and 4
+		play.db.Model[] results = new play.db.Model[8];
+		hydrator.hydrate(TestModel.class, ids(9, 7, 1, 3, 2, 5), Arrays.asList(0, 2, 3, 5, 6, 7), results);
+
+		assertEquals(Arrays.asList(9L, null, 7L, 1L, null, 3L, 2L, 5L), Arrays.asList(id(results[0]),
+				id(results[1]), id(results[2]), id(results[3]), id(results[4]), id(results[5]), id(results[6]),
+				id(results[7])));
+
+		// Cached models are not queried
+		assertEquals(1, hydrator.queries.size());
+		assertEquals(ids(9, 1, 2, 5), hydrator.queries.get(0));
+	}
+
+	@Test
+	public void testMissingRowsLeavePositionsEmpty() {
+		FakeHydrator hydrator = new FakeHydrator(4);
+		hydrator.table.addAll(Arrays.asList(1L, 3L));
+
+		play.db.Model[] results = new play.db.Model[4];
+		hydrator.hydrate(TestModel.class, ids(1, 2, 3, 4), positions(4), results);
+
+		assertEquals(Long.valueOf(1), id(results[0]));
+		assertNull(results[1]);
+		assertEquals(Long.valueOf(3), id(results[2]));
+		assertNull(results[3]);
+	}
+
+	@Test
+	public void testFailedLoadOfOneClassIsRethrown() {
+		FakeHydrator hydrator = new FakeHydrator(4, 2);
+		hydrator.table.add(1L);
+
+		Map<Class<play.db.Model>, List<Object>> ids = new LinkedHashMap<Class<play.db.Model>, List<Object>>();
+		Map<Class<play.db.Model>, List<Integer>> positions = new LinkedHashMap<Class<play.db.Model>, List<Integer>>();
+		ids.put(modelClass(TestModel.class), ids(1));
+		positions.put(modelClass(TestModel.class), Arrays.asList(0));
+		ids.put(modelClass(OtherModel.class), ids(2));
+		positions.put(modelClass(OtherModel.class), Arrays.asList(1));
+
+		try {
+			hydrator.hydrateAll(ids, positions, new play.db.Model[2]);
+			fail("The failed load must not leave its positions empty silently");
+		} catch (UnexpectedException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		} finally {
+			ModelHydrator.shutdown();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<play.db.Model> modelClass(Class<? extends play.db.Model> clazz) {
+		return (Class<play.db.Model>) clazz;
+	}
+
+	@Test
+	public void testNothingIsQueriedWhenAllAreCached() {
+		FakeHydrator hydrator = new FakeHydrator(4);
+		hydrator.cached.addAll(Arrays.asList(1L, 2L));
+
+		play.db.Model[] results = new play.db.Model[2];
+		hydrator.hydrate(TestModel.class, ids(1, 2), positions(2), results);
+
+		assertTrue(hydrator.queries.isEmpty());
+		assertEquals(Long.valueOf(2), id(results[1]));
+	}
+
+}
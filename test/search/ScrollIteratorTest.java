@@ -0,0 +1,138 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Test;
+
+import play.db.jpa.Model;
+import play.modules.elasticsearch.search.ScrollIterator;
+import play.modules.elasticsearch.search.SearchResults;
+import play.modules.elasticsearch.transformer.Transformer;
+import play.test.UnitTest;
+
+/**
+ * Tests for lazily iterating over scroll batches
+ */
+public class ScrollIteratorTest extends UnitTest {
+
+	@SuppressWarnings("serial")
+	public static class TestModel extends Model {
+	}
+
+	/** Creates one model per hit, using the hit id as model id */
+	private static class IdTransformer implements Transformer<TestModel> {
+
+		int batches = 0;
+
+		@Override
+		public SearchResults<TestModel> toSearchResults(SearchResponse searchResponse, Class<TestModel> clazz) {
+			batches++;
+			List<TestModel> objects = new ArrayList<TestModel>();
+			for (SearchHit hit : searchResponse.hits()) {
+				TestModel model = new TestModel();
+				model.id = Long.valueOf(hit.id());
+				objects.add(model);
+			}
+			return new SearchResults<TestModel>(searchResponse.hits().totalHits(), objects, null);
+		}
+	}
+
+	/** Serves the batches from a list instead of Elastic Search */
+	private static class TestScrollIterator extends ScrollIterator<TestModel> {
+
+		final LinkedList<SearchResponse> batches;
+		int fetched = 0;
+
+		TestScrollIterator(SearchResponse first, List<SearchResponse> batches, Transformer<TestModel> transformer) {
+			super(null, first, null, transformer, TestModel.class);
+			this.batches = new LinkedList<SearchResponse>(batches);
+		}
+
+		@Override
+		protected SearchResponse fetch(String scrollId) {
+			fetched++;
+			return batches.removeFirst();
+		}
+	}
+
+	private static SearchResponse response(long total, String scrollId, int... ids) {
+		InternalSearchHit[] hits = new InternalSearchHit[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			hits[i] = new InternalSearchHit(i, String.valueOf(ids[i]), "type", null, null);
+		}
+		InternalSearchResponse internal = new InternalSearchResponse(new InternalSearchHits(hits, total, 1f),
+				null, false);
+		return new SearchResponse(internal, scrollId, 1, 1, 0, new ShardSearchFailure[0]);
+	}
+
+	private static List<Long> ids(TestScrollIterator iterator) {
+		List<Long> ids = new ArrayList<Long>();
+		while (iterator.hasNext()) {
+			ids.add(iterator.next().id);
+		}
+		return ids;
+	}
+
+	@Test
+	public void testScan() {
+		// A scan returns the hits with the scroll requests only
+		List<SearchResponse> batches = new ArrayList<SearchResponse>();
+		batches.add(response(3, "b", 1, 2));
+		batches.add(response(3, "c", 3));
+		batches.add(response(3, "d"));
+		IdTransformer transformer = new IdTransformer();
+		TestScrollIterator iterator = new TestScrollIterator(response(3, "a"), batches, transformer);
+
+		assertEquals(3, iterator.getTotalCount());
+		assertEquals(0, transformer.batches);
+		assertEquals(0, iterator.fetched);
+
+		assertEquals(list(1L, 2L, 3L), ids(iterator));
+		assertEquals(3, iterator.fetched);
+		assertEquals(2, transformer.batches);
+		assertFalse(iterator.hasNext());
+		assertEquals(3, iterator.fetched);
+	}
+
+	@Test
+	public void testFirstBatchInInitialResponse() {
+		List<SearchResponse> batches = new ArrayList<SearchResponse>();
+		batches.add(response(3, "b", 3));
+		batches.add(response(3, "c"));
+		TestScrollIterator iterator = new TestScrollIterator(response(3, "a", 1, 2), batches, new IdTransformer());
+
+		// The first batch is consumed before fetching the next one
+		assertEquals(Long.valueOf(1), iterator.next().id);
+		assertEquals(Long.valueOf(2), iterator.next().id);
+		assertEquals(0, iterator.fetched);
+
+		assertEquals(list(3L), ids(iterator));
+		assertEquals(2, iterator.fetched);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testExhausted() {
+		List<SearchResponse> batches = Collections.singletonList(response(0, "b"));
+		TestScrollIterator iterator = new TestScrollIterator(response(0, "a"), batches, new IdTransformer());
+
+		assertFalse(iterator.hasNext());
+		iterator.next();
+	}
+
+	private static List<Long> list(Long... ids) {
+		List<Long> list = new ArrayList<Long>();
+		Collections.addAll(list, ids);
+		return list;
+	}
+
+}
@@ -0,0 +1,83 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import play.modules.elasticsearch.util.SingleFlightCache;
+import play.test.UnitTest;
+
+/**
+ * Tests for the single-flight cache used by the mapper registry
+ */
+public class SingleFlightCacheTest extends UnitTest {
+
+	@Test
+	public void testConcurrentGetCreatesOnce() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleFlightCache<String, String> cache = new SingleFlightCache<String, String>() {
+			@Override
+			protected String create(String key) throws Exception {
+				created.incrementAndGet();
+				release.await();
+				return key.toUpperCase();
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return cache.get("posts");
+					}
+				}));
+			}
+			Thread.sleep(100);
+			release.countDown();
+
+			for (Future<String> result : results) {
+				assertEquals("POSTS", result.get());
+			}
+			assertEquals(1, created.get());
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailureIsRetried() {
+		final AtomicInteger attempts = new AtomicInteger();
+		SingleFlightCache<String, String> cache = new SingleFlightCache<String, String>() {
+			@Override
+			protected String create(String key) {
+				if (attempts.incrementAndGet() == 1) {
+					throw new IllegalArgumentException("first attempt");
+				}
+				return key;
+			}
+		};
+
+		try {
+			cache.get("posts");
+			fail("Expected the failure of the first attempt");
+		} catch (IllegalArgumentException e) {
+			assertEquals("first attempt", e.getMessage());
+		}
+		assertEquals("posts", cache.get("posts"));
+		assertEquals("posts", cache.get("posts"));
+		assertEquals(2, attempts.get());
+	}
+
+}